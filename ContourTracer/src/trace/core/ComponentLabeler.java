@@ -0,0 +1,248 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2011 Andre Groeschel
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+
+package trace.core;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import tracer.utils.Bitmap;
+
+/** The ComponentLabeler finds the 8-connected foreground components of a bitmap with a two pass union-find
+ * labeling of pixel runs. Horizontal bands of rows are labeled in parallel on the common ForkJoinPool, then
+ * the bands are joined at their seams and the component table is filled in one pass over the runs
+ */
+public class ComponentLabeler {
+	private final static int MIN_BAND_HEIGHT = 64;
+	private final static int BANDS_PER_THREAD = 4;
+
+	public ComponentTable label(final Bitmap bitmap) {
+		int height = bitmap.getHeight();
+		int bandCount = Math.min(Math.max(1, height / MIN_BAND_HEIGHT),
+				ForkJoinPool.getCommonPoolParallelism() * BANDS_PER_THREAD);
+
+		Band bands[] = new Band[bandCount];
+		for (int i = 0; i < bandCount; ++i) {
+			bands[i] = new Band(bitmap, (int) ((long) height * i / bandCount), (int) ((long) height * (i + 1) / bandCount));
+		}
+		ContourPacker.invokeParallel(bands);
+
+		// put the runs of all bands one after another, the parent of a run always has a lower index
+		int runBase[] = new int[bandCount];
+		int runCount = 0;
+		for (int i = 0; i < bandCount; ++i) {
+			runBase[i] = runCount;
+			runCount += bands[i].runCount;
+		}
+
+		int runY[] = new int[runCount];
+		int runStart[] = new int[runCount];
+		int runEnd[] = new int[runCount];
+		int parent[] = new int[runCount];
+		int overlaps[] = new int[runCount];
+
+		for (int i = 0; i < bandCount; ++i) {
+			Band band = bands[i];
+			System.arraycopy(band.runY, 0, runY, runBase[i], band.runCount);
+			System.arraycopy(band.runStart, 0, runStart, runBase[i], band.runCount);
+			System.arraycopy(band.runEnd, 0, runEnd, runBase[i], band.runCount);
+			System.arraycopy(band.overlaps, 0, overlaps, runBase[i], band.runCount);
+			for (int j = 0; j < band.runCount; ++j) {
+				parent[runBase[i] + j] = runBase[i] + band.parent[j];
+			}
+
+			// join the first row of the band with the last row of the band above
+			if (i > 0 && band.rowOffsets.length > 1 && bands[i - 1].rowOffsets.length > 1) {
+				Band previousBand = bands[i - 1];
+				int previousRows = previousBand.rowOffsets.length - 1;
+				joinRows(runStart, runEnd, parent, overlaps, runBase[i - 1] + previousBand.rowOffsets[previousRows - 1],
+						runBase[i], runBase[i] + band.rowOffsets[1]);
+			}
+			if (i > 0) {
+				bands[i - 1] = null;
+			}
+		}
+
+		// second pass, roots come first in scan order so the label of a parent is always known
+		int labels[] = new int[runCount];
+		int componentCount = 0;
+		for (int i = 0; i < runCount; ++i) {
+			labels[i] = parent[i] == i ? componentCount++ : labels[find(parent, i)];
+		}
+
+		int left[] = new int[componentCount];
+		int top[] = new int[componentCount];
+		int right[] = new int[componentCount];
+		int bottom[] = new int[componentCount];
+		int area[] = new int[componentCount];
+		int holeCount[] = new int[componentCount];
+		int runOffsets[] = new int[componentCount + 1];
+
+		Arrays.fill(left, Integer.MAX_VALUE);
+		for (int i = 0; i < runCount; ++i) {
+			int component = labels[i];
+			if (runOffsets[component + 1] == 0) {
+				top[component] = runY[i];
+			}
+			left[component] = Math.min(left[component], runStart[i]);
+			right[component] = Math.max(right[component], runEnd[i]);
+			bottom[component] = runY[i] + 1;
+			area[component] += runEnd[i] - runStart[i];
+
+			// Euler number of runs: every run adds a part, every overlap with the row above joins two
+			holeCount[component] += overlaps[i] - 1;
+			++runOffsets[component + 1];
+		}
+
+		for (int i = 0; i < componentCount; ++i) {
+			holeCount[i] += 1;
+			runOffsets[i + 1] += runOffsets[i];
+		}
+
+		// group the runs by component, keeping the scan order inside of each component
+		int groupedY[] = new int[runCount];
+		int groupedStart[] = new int[runCount];
+		int groupedEnd[] = new int[runCount];
+		int nextRun[] = Arrays.copyOf(runOffsets, componentCount);
+		for (int i = 0; i < runCount; ++i) {
+			int index = nextRun[labels[i]]++;
+			groupedY[index] = runY[i];
+			groupedStart[index] = runStart[i];
+			groupedEnd[index] = runEnd[i];
+		}
+
+		return new ComponentTable(componentCount, left, top, right, bottom, area, holeCount, runOffsets, groupedY,
+				groupedStart, groupedEnd);
+	}
+
+	/** Unites the runs previousFirst to first - 1 of a row with the 8-connected runs first to last - 1 of the row
+	 * below and counts the overlaps at the lower runs
+	 */
+	private static void joinRows(final int runStart[], final int runEnd[], final int parent[], final int overlaps[],
+			final int previousFirst, final int first, final int last) {
+		int i = previousFirst;
+		int j = first;
+		while (i < first && j < last) {
+			if (runStart[i] <= runEnd[j] && runStart[j] <= runEnd[i]) {
+				union(parent, i, j);
+				++overlaps[j];
+			}
+
+			// the run that ends first can not touch any later run of the other row
+			if (runEnd[i] <= runEnd[j]) {
+				++i;
+			} else {
+				++j;
+			}
+		}
+	}
+
+	private static int find(final int parent[], int run) {
+		while (parent[run] != run) {
+			// path halving keeps parents at lower indices
+			parent[run] = parent[parent[run]];
+			run = parent[run];
+		}
+		return run;
+	}
+
+	private static void union(final int parent[], final int run, final int otherRun) {
+		int root = find(parent, run);
+		int otherRoot = find(parent, otherRun);
+		if (root < otherRoot) {
+			parent[otherRoot] = root;
+		} else if (otherRoot < root) {
+			parent[root] = otherRoot;
+		}
+	}
+
+	/** Extracts and labels the runs of the rows top to bottom - 1
+	 */
+	private static class Band extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private Bitmap bitmap;
+		private int top;
+		private int bottom;
+
+		private int runY[];
+		private int runStart[];
+		private int runEnd[];
+		private int parent[];
+		private int overlaps[];
+		private int runCount;
+		// the runs of row top + i start at rowOffsets[i]
+		private int rowOffsets[];
+
+		private Band(final Bitmap bitmap, final int top, final int bottom) {
+			this.bitmap = bitmap;
+			this.top = top;
+			this.bottom = bottom;
+		}
+
+		@Override
+		protected void compute() {
+			this.runY = new int[256];
+			this.runStart = new int[256];
+			this.runEnd = new int[256];
+			this.parent = new int[256];
+			this.overlaps = new int[256];
+			this.rowOffsets = new int[bottom - top + 1];
+
+			for (int y = top; y < bottom; ++y) {
+				rowOffsets[y - top] = runCount;
+				for (int x = bitmap.nextForeground(0, y); x >= 0;) {
+					int end = bitmap.nextBackground(x, y);
+					addRun(y, x, end);
+					x = end < bitmap.getWidth() ? bitmap.nextForeground(end, y) : -1;
+				}
+
+				if (y > top) {
+					joinRows(runStart, runEnd, parent, overlaps, rowOffsets[y - top - 1], rowOffsets[y - top], runCount);
+				}
+			}
+			rowOffsets[bottom - top] = runCount;
+			this.bitmap = null;
+		}
+
+		private void addRun(final int y, final int start, final int end) {
+			if (runCount == runY.length) {
+				int capacity = runCount * 2;
+				runY = Arrays.copyOf(runY, capacity);
+				runStart = Arrays.copyOf(runStart, capacity);
+				runEnd = Arrays.copyOf(runEnd, capacity);
+				parent = Arrays.copyOf(parent, capacity);
+				overlaps = Arrays.copyOf(overlaps, capacity);
+			}
+			runY[runCount] = y;
+			runStart[runCount] = start;
+			runEnd[runCount] = end;
+			parent[runCount] = runCount;
+			++runCount;
+		}
+	}
+}
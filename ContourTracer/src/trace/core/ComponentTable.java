@@ -0,0 +1,127 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2011 Andre Groeschel
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+
+package trace.core;
+
+import tracer.utils.Bitmap;
+
+/** The ComponentTable lists the 8-connected foreground components of a bitmap
+ * Components are numbered in scan order of their first pixel, the right and bottom border of a bounding
+ * box are exclusive. The pixels of each component are stored as horizontal runs in scan order
+ */
+public class ComponentTable {
+	private int size;
+
+	private int left[];
+	private int top[];
+	private int right[];
+	private int bottom[];
+	private int area[];
+	private int holeCount[];
+
+	// the runs of component i are runOffsets[i] to runOffsets[i + 1] - 1
+	private int runOffsets[];
+	private int runY[];
+	private int runStart[];
+	private int runEnd[];
+
+	ComponentTable(final int size, final int left[], final int top[], final int right[], final int bottom[],
+			final int area[], final int holeCount[], final int runOffsets[], final int runY[], final int runStart[],
+			final int runEnd[]) {
+		this.size = size;
+		this.left = left;
+		this.top = top;
+		this.right = right;
+		this.bottom = bottom;
+		this.area = area;
+		this.holeCount = holeCount;
+		this.runOffsets = runOffsets;
+		this.runY = runY;
+		this.runStart = runStart;
+		this.runEnd = runEnd;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public int getLeft(final int component) {
+		return left[component];
+	}
+
+	public int getTop(final int component) {
+		return top[component];
+	}
+
+	public int getRight(final int component) {
+		return right[component];
+	}
+
+	public int getBottom(final int component) {
+		return bottom[component];
+	}
+
+	/** Returns the number of pixels of the component
+	 */
+	public int getArea(final int component) {
+		return area[component];
+	}
+
+	/** Returns the number of 4-connected background regions enclosed by the component
+	 */
+	public int getHoleCount(final int component) {
+		return holeCount[component];
+	}
+
+	public int getRunCount(final int component) {
+		return runOffsets[component + 1] - runOffsets[component];
+	}
+
+	public int getRunY(final int component, final int run) {
+		return runY[runOffsets[component] + run];
+	}
+
+	public int getRunStart(final int component, final int run) {
+		return runStart[runOffsets[component] + run];
+	}
+
+	/** Returns the column right of the last pixel of the run
+	 */
+	public int getRunEnd(final int component, final int run) {
+		return runEnd[runOffsets[component] + run];
+	}
+
+	/** Returns a bitmap of the bounding box that holds only the pixels of the component, pixel (x, y) of the
+	 * image is pixel (x - getLeft(component), y - getTop(component)) of the bitmap
+	 */
+	public Bitmap getBitmap(final int component) {
+		Bitmap bitmap = new Bitmap(right[component] - left[component], bottom[component] - top[component]);
+		for (int i = runOffsets[component]; i < runOffsets[component + 1]; ++i) {
+			bitmap.setRun(runY[i] - top[component], runStart[i] - left[component], runEnd[i] - left[component]);
+		}
+		return bitmap;
+	}
+}
@@ -0,0 +1,183 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2011 Andre Groeschel
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+
+package trace.core;
+
+import java.util.Arrays;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import tracer.utils.Contour;
+
+/** The ComponentTracer traces every component of a component table on its own, inside of its bounding box
+ * Chunks of components with about the same number of runs are traced in parallel on the common ForkJoinPool,
+ * the contours are numbered like in the serial edge map trace of the whole image
+ */
+class ComponentTracer {
+	private final static int CHUNKS_PER_THREAD = 4;
+
+	private ComponentTable componentTable;
+	private boolean isCornerOutput;
+	private int turdSize;
+	private long keyStride;
+
+	private Contour outerContour;
+	private Contour innerContour;
+
+	ComponentTracer(final ComponentTable componentTable, final int imageWidth, final boolean isCornerOutput, final int turdSize) {
+		this.componentTable = componentTable;
+		this.isCornerOutput = isCornerOutput;
+		this.turdSize = turdSize;
+		this.keyStride = imageWidth + 1;
+	}
+
+	/** Traces all components and returns the number of contours
+	 */
+	int trace() {
+		int componentCount = componentTable.getSize();
+		int chunkCount = Math.max(1, Math.min(componentCount, ForkJoinPool.getCommonPoolParallelism() * CHUNKS_PER_THREAD));
+
+		long runCount = 0;
+		for (int i = 0; i < componentCount; ++i) {
+			runCount += componentTable.getRunCount(i);
+		}
+
+		// split the components where the run count passes the next share
+		Chunk chunks[] = new Chunk[chunkCount];
+		int first = 0;
+		long runs = 0;
+		for (int i = 0; i < chunkCount; ++i) {
+			int last = first;
+			while (last < componentCount && (i == chunkCount - 1 || runs < runCount * (i + 1) / chunkCount)) {
+				runs += componentTable.getRunCount(last);
+				++last;
+			}
+			chunks[i] = new Chunk(first, last);
+			first = last;
+		}
+		ContourPacker.invokeParallel(chunks);
+
+		Vector<ContourPacker.Block> blocks = new Vector<ContourPacker.Block>();
+		for (int i = 0; i < chunkCount; ++i) {
+			blocks.addAll(chunks[i].blocks);
+		}
+
+		ContourPacker contourPacker = new ContourPacker();
+		contourPacker.pack(blocks.toArray(new ContourPacker.Block[blocks.size()]), chunkCount);
+		this.outerContour = contourPacker.getOuterContour();
+		this.innerContour = contourPacker.getInnerContour();
+
+		return blocks.size();
+	}
+
+	Contour getOuterContour() {
+		return outerContour;
+	}
+
+	Contour getInnerContour() {
+		return innerContour;
+	}
+
+	/** Traces the components first to last - 1 with an edge map tracer of its own
+	 */
+	private class Chunk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private int first;
+		private int last;
+
+		// the contours of all components in image coordinates
+		private int outputX[];
+		private int outputY[];
+		private int outputCount;
+		private Vector<ContourPacker.Block> blocks;
+
+		private Chunk(final int first, final int last) {
+			this.first = first;
+			this.last = last;
+		}
+
+		@Override
+		protected void compute() {
+			this.outputX = new int[256];
+			this.outputY = new int[256];
+			this.blocks = new Vector<ContourPacker.Block>();
+
+			Potracer potracer = new Potracer();
+			potracer.setMode(Potracer.MODE_EDGE_MAP);
+			potracer.setCornerOutput(isCornerOutput);
+			potracer.setTurdSize(turdSize);
+
+			for (int component = first; component < last; ++component) {
+				// the outer contour encloses at least the pixels of the component, its holes even less
+				if (componentTable.getArea(component) <= turdSize && componentTable.getHoleCount(component) == 0) {
+					continue;
+				}
+
+				// other components inside of the holes are left out, the holes keep their contours
+				potracer.setImage(componentTable.getBitmap(component));
+				potracer.trace();
+
+				int left = componentTable.getLeft(component);
+				int top = componentTable.getTop(component);
+				addContours(potracer.getOuterContour(), false, left, top);
+				addContours(potracer.getInnerContour(), true, left, top);
+			}
+
+			// the buffers do not grow anymore
+			for (int i = 0; i < blocks.size(); ++i) {
+				blocks.get(i).sourceX = outputX;
+				blocks.get(i).sourceY = outputY;
+			}
+		}
+
+		private void addContours(final Contour contour, final boolean isHole, final int left, final int top) {
+			for (int i = 0; i < contour.getSize(); ++i) {
+				int contourID = contour.getContourID(i);
+				int size = contour.getContourSize(contourID);
+
+				if (outputCount + size > outputX.length) {
+					int capacity = Math.max(outputCount + size, outputX.length * 2);
+					this.outputX = Arrays.copyOf(outputX, capacity);
+					this.outputY = Arrays.copyOf(outputY, capacity);
+				}
+
+				ContourPacker.Block block = new ContourPacker.Block();
+				block.isHole = isHole;
+				block.sourceOffset = outputCount;
+				block.size = size;
+				for (int j = 0; j < size; ++j) {
+					outputX[outputCount] = contour.getX(contourID, j) + left;
+					outputY[outputCount] = contour.getY(contourID, j) + top;
+					++outputCount;
+				}
+				block.startKey = outputY[block.sourceOffset] * keyStride + outputX[block.sourceOffset];
+				blocks.add(block);
+			}
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2011 Andre Groeschel
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+
+package trace.core;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import tracer.utils.Contour;
+
+/** The ContourPacker collects contours traced by parallel tasks and copies them into an outer and an
+ * inner contour table. The contour IDs follow the scan order of the start vertices, like in the serial trace
+ */
+class ContourPacker {
+	private Contour outerContour;
+	private Contour innerContour;
+
+	/** Numbers and copies the blocks with taskCount tasks on the common ForkJoinPool, the blocks are sorted
+	 */
+	void pack(final Block blocks[], final int taskCount) {
+		Arrays.sort(blocks);
+
+		int outerCount = 0;
+		int innerCount = 0;
+		for (int id = 0; id < blocks.length; ++id) {
+			if (blocks[id].isHole) {
+				++innerCount;
+			} else {
+				++outerCount;
+			}
+		}
+
+		int outerIDs[] = new int[outerCount];
+		int outerOffsets[] = new int[outerCount];
+		int outerSizes[] = new int[outerCount];
+		int innerIDs[] = new int[innerCount];
+		int innerOffsets[] = new int[innerCount];
+		int innerSizes[] = new int[innerCount];
+		final int outputOffsets[] = new int[blocks.length];
+
+		outerCount = 0;
+		innerCount = 0;
+		int outerSize = 0;
+		int innerSize = 0;
+		for (int id = 0; id < blocks.length; ++id) {
+			Block block = blocks[id];
+			if (block.isHole) {
+				innerIDs[innerCount] = id;
+				innerOffsets[innerCount] = innerSize;
+				innerSizes[innerCount] = block.size;
+				outputOffsets[id] = innerSize;
+				++innerCount;
+				innerSize += block.size;
+			} else {
+				outerIDs[outerCount] = id;
+				outerOffsets[outerCount] = outerSize;
+				outerSizes[outerCount] = block.size;
+				outputOffsets[id] = outerSize;
+				++outerCount;
+				outerSize += block.size;
+			}
+		}
+
+		final int outerX[] = new int[outerSize];
+		final int outerY[] = new int[outerSize];
+		final int innerX[] = new int[innerSize];
+		final int innerY[] = new int[innerSize];
+
+		RecursiveAction copyTasks[] = new RecursiveAction[taskCount];
+		for (int i = 0; i < taskCount; ++i) {
+			final int first = (int) ((long) blocks.length * i / taskCount);
+			final int last = (int) ((long) blocks.length * (i + 1) / taskCount);
+
+			copyTasks[i] = new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					for (int id = first; id < last; ++id) {
+						Block block = blocks[id];
+						System.arraycopy(block.sourceX, block.sourceOffset, block.isHole ? innerX : outerX, outputOffsets[id], block.size);
+						System.arraycopy(block.sourceY, block.sourceOffset, block.isHole ? innerY : outerY, outputOffsets[id], block.size);
+					}
+				}
+			};
+		}
+		invokeParallel(copyTasks);
+
+		this.outerContour = new Contour(outerX, outerY, outerIDs, outerOffsets, outerSizes, outerCount);
+		this.innerContour = new Contour(innerX, innerY, innerIDs, innerOffsets, innerSizes, innerCount);
+	}
+
+	Contour getOuterContour() {
+		return outerContour;
+	}
+
+	Contour getInnerContour() {
+		return innerContour;
+	}
+
+	/** Runs the tasks on the common ForkJoinPool and waits for all of them
+	 */
+	static void invokeParallel(final ForkJoinTask<?> tasks[]) {
+		ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+	}
+
+	/** A finished contour in the buffer of the task that traced it, points sourceOffset to sourceOffset + size - 1
+	 * The start key is y * stride + x of the start vertex for some stride larger than the image width
+	 */
+	static class Block implements Comparable<Block> {
+		long startKey;
+		boolean isHole;
+
+		int sourceX[];
+		int sourceY[];
+		int sourceOffset;
+		int size;
+
+		public int compareTo(final Block block) {
+			return Long.compare(startKey, block.startKey);
+		}
+	}
+}
@@ -24,23 +24,25 @@ THE SOFTWARE.
 
 package trace.core;
 
-import java.awt.Point;
 import java.awt.geom.Point2D;
+import java.io.BufferedWriter;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Vector;
 
 import org.apache.batik.anim.dom.SVGDOMImplementation;
-import org.apache.batik.dom.util.DOMUtilities;
 import org.w3c.dom.DOMImplementation;
 import org.w3c.dom.Element;
 import org.w3c.dom.svg.SVGDocument;
 
 import tracer.utils.Contour;
-import tracer.utils.Math;
+import tracer.utils.ContourTree;
+import tracer.utils.PathDataEncoder;
 
 public class CurveBuilder {
 	private SVGDocument document;
@@ -66,18 +68,47 @@ public class CurveBuilder {
 	// private final static String CONTROLPOINT_COLOR = "blue";
 	// private final static String CONTROLPOINT_SIZE = "0.3";
 
+	private final static int DEFAULT_PRECISION = 3;
+
+	// values stored for each polygon corner
+	final static int CORNER_SIZE = 5;
+
+	// maximum distance of joined curves from the polygon edges in source pixels, as in potrace
+	private final static double DEFAULT_OPTIMIZATION_TOLERANCE = 0.2;
+
 	private double factor;
 	private double minimumAngle;
 	private double maximumAngle;
 
+	// path data of the current curve, reused for all curves
+	private PathDataEncoder pathData;
+	private boolean isNewCurveSegment;
+
+	// control point positions of the current curve, set segments are drawn as two lines
+	private double alphas[];
+	private boolean corners[];
+
+	// joins runs of segments if enabled, null otherwise
+	private CurveOptimizer curveOptimizer;
+	private double optimizationTolerance;
+
 	private Element curves[];
+	private String curveData[];
+	private boolean innerCurves[];
 
-	private Vector<Point[]> polygonsVertices;
-	private Vector<Point2D.Double[]> centerPoints;
+	// corner geometry of each polygon by contour ID, see calculateCornerGeometry()
+	private Vector<double[]> cornerGeometry;
 
 	private Contour outerPolygons;
 	private Contour innerPolygons;
 
+	// sub-pixel vertices by contour ID, they replace the vertices of the polygons
+	private HashMap<Integer, Point2D.Double[]> outerAdjustedPolygons;
+	private HashMap<Integer, Point2D.Double[]> innerAdjustedPolygons;
+
+	private boolean isCompoundOutput;
+	private ContourTree contourTree;
+
 	int curveAmount;
 
 	String svgNS;
@@ -88,9 +119,18 @@ public class CurveBuilder {
 		this.minimumAngle = 0.55;
 		this.maximumAngle = 1;
 
+		this.pathData = new PathDataEncoder(DEFAULT_PRECISION);
+		this.alphas = new double[0];
+		this.corners = new boolean[0];
+		this.optimizationTolerance = DEFAULT_OPTIMIZATION_TOLERANCE;
+
+		// the SVG document is created on first access, headless callers only need the path data
+		svgNS = SVGDOMImplementation.SVG_NAMESPACE_URI;
+	}
+
+	private void createDocument() {
 		// create SVG document
 		DOMImplementation impl = SVGDOMImplementation.getDOMImplementation();
-		svgNS = SVGDOMImplementation.SVG_NAMESPACE_URI;
 		document = (SVGDocument) impl.createDocument(svgNS, "svg", null);
 
 		// Get the root element (the 'svg' element).
@@ -104,54 +144,182 @@ public class CurveBuilder {
 	}
 
 	public void findCurves() {
-		// reset data structures
-		polygonsVertices = new Vector<Point[]>();
-		centerPoints = new Vector<Point2D.Double[]>();
+		ImageTracer imageTracer = ImageTracer.getInstance();
+		ContourTree contourTree = isCompoundOutput ? imageTracer.getContourTracer().getContourTree() : null;
+		findCurves(imageTracer.getOuterPolygons(), imageTracer.getOuterAdjustedPolygons(), imageTracer.getInnerPolygons(),
+				imageTracer.getInnerAdjustedPolygons(), contourTree);
+	}
+
+	public void findCurves(final Contour outerPolygons, final Contour innerPolygons) {
+		findCurves(outerPolygons, innerPolygons, null);
+	}
+
+	public void findCurves(final Contour outerPolygons, final Contour innerPolygons, final ContourTree contourTree) {
+		findCurves(outerPolygons, null, innerPolygons, null, contourTree);
+	}
+
+	/** Finds the curves of the polygons, the contour tree of the traced contours is needed for compound output
+	 * The adjusted vertices from PolygonBuilder.getPolygons() replace the vertices of the polygons they
+	 * exist for, either map may be null
+	 */
+	public void findCurves(final Contour outerPolygons, final HashMap<Integer, Point2D.Double[]> outerAdjustedPolygons,
+			final Contour innerPolygons, final HashMap<Integer, Point2D.Double[]> innerAdjustedPolygons,
+			final ContourTree contourTree) {
+		if (isCompoundOutput && contourTree == null)
+			throw new IllegalArgumentException("compound output needs a contour tree");
+
+		this.contourTree = isCompoundOutput ? contourTree : null;
+
+		this.outerPolygons = outerPolygons;
+		this.innerPolygons = innerPolygons;
+		this.outerAdjustedPolygons = outerAdjustedPolygons;
+		this.innerAdjustedPolygons = innerAdjustedPolygons;
 
-		outerPolygons = ImageTracer.getInstance().getOuterPolygons();
-		innerPolygons = ImageTracer.getInstance().getInnerPolygons();
+		// curves are indexed by contour ID, IDs without a polygon get no curve
+		curveAmount = getContourLimit(outerPolygons, innerPolygons);
+		innerCurves = new boolean[curveAmount];
 
-		curveAmount = outerPolygons.getSize() + innerPolygons.getSize();
+		// reset data structures
+		cornerGeometry = new Vector<double[]>();
+		cornerGeometry.setSize(curveAmount);
 
 		// copy the points found by the PolygonBuilder into another data
 		// structure (merge inner and outer polygons)
 		// we need to do the curve calculation with double precision
 		for (int i = 0; i < curveAmount; ++i) {
-			if (outerPolygons.hasContour(i)) {
-				Iterator<Point> pointIt = outerPolygons.getPointIterator(i);
-				Point vertices[] = new Point[outerPolygons.getContourSize(i)];
+			setPolygon(i);
+		}
 
-				for (int j = 0; pointIt.hasNext(); ++j) {
-					vertices[j] = pointIt.next();
-				}
+		curveData = new String[curveAmount];
 
-				polygonsVertices.add(vertices);
-			}
+		// create the svg elements if a document is attached, all elements are
+		// created at this stage but not filled with data yet
+		if (document != null) {
+			buildDocument();
+		}
+		buildCurves();
 
-			if (innerPolygons.hasContour(i)) {
-				Iterator<Point> pointIt = innerPolygons.getPointIterator(i);
-				Point vertices[] = new Point[innerPolygons.getContourSize(i)];
+	}
+
+	public void updateCurves(final Contour outerPolygons, final Contour innerPolygons, final ContourTree contourTree,
+			final int contourIDs[]) {
+		updateCurves(outerPolygons, null, innerPolygons, null, contourTree, contourIDs);
+	}
+
+	/** Finds the curves of the given contour IDs again after their polygons changed, for example after
+	 * Potracer.retrace(), the other curves are kept. Falls back to findCurves() if there are no curves yet
+	 */
+	public void updateCurves(final Contour outerPolygons, final HashMap<Integer, Point2D.Double[]> outerAdjustedPolygons,
+			final Contour innerPolygons, final HashMap<Integer, Point2D.Double[]> innerAdjustedPolygons,
+			final ContourTree contourTree, final int contourIDs[]) {
+		if (curveData == null) {
+			findCurves(outerPolygons, outerAdjustedPolygons, innerPolygons, innerAdjustedPolygons, contourTree);
+			return;
+		}
+		if (isCompoundOutput && contourTree == null)
+			throw new IllegalArgumentException("compound output needs a contour tree");
+
+		this.contourTree = isCompoundOutput ? contourTree : null;
+
+		this.outerPolygons = outerPolygons;
+		this.innerPolygons = innerPolygons;
+		this.outerAdjustedPolygons = outerAdjustedPolygons;
+		this.innerAdjustedPolygons = innerAdjustedPolygons;
+
+		// new contours may have got IDs above all previous ones
+		int contourLimit = getContourLimit(outerPolygons, innerPolygons);
+		if (contourLimit > curveAmount) {
+			curveAmount = contourLimit;
+			innerCurves = java.util.Arrays.copyOf(innerCurves, curveAmount);
+			curveData = java.util.Arrays.copyOf(curveData, curveAmount);
+			cornerGeometry.setSize(curveAmount);
+			if (curves != null) {
+				curves = java.util.Arrays.copyOf(curves, curveAmount);
+			}
+		}
 
-				for (int j = 0; pointIt.hasNext(); ++j) {
-					vertices[j] = pointIt.next();
+		// walking the sorted IDs backwards finds the element after each curve in one pass over the elements
+		Element nextCurve = null;
+		int scannedIndex = curveAmount;
+		for (int i = contourIDs.length - 1; i >= 0; --i) {
+			int contourID = contourIDs[i];
+			setPolygon(contourID);
+			curveData[contourID] = buildCurve(contourID);
+
+			if (curves != null) {
+				if (contourID >= scannedIndex) {
+					// the IDs are not sorted, search from the end again
+					nextCurve = null;
+					scannedIndex = curveAmount;
+				}
+				for (int j = scannedIndex - 1; j > contourID; --j) {
+					if (curves[j] != null) {
+						nextCurve = curves[j];
+					}
 				}
+				scannedIndex = contourID;
 
-				polygonsVertices.add(vertices);
+				replaceElement(contourID, nextCurve);
+				if (curves[contourID] != null) {
+					nextCurve = curves[contourID];
+				}
 			}
 		}
 
-		// create the svg document, all elements are created at this stage but
-		// not filled with data yet
-		buildDocument();
-		calculateCenterPoints();
-		buildCurves();
+		// the holes of a compound path may have changed with any contour
+		if (curves != null && this.contourTree != null) {
+			updateElements();
+		}
+	}
+
+	private static int getContourLimit(final Contour outerPolygons, final Contour innerPolygons) {
+		int contourLimit = 0;
+		for (int i = 0; i < outerPolygons.getSize(); ++i) {
+			contourLimit = java.lang.Math.max(contourLimit, outerPolygons.getContourID(i) + 1);
+		}
+		for (int i = 0; i < innerPolygons.getSize(); ++i) {
+			contourLimit = java.lang.Math.max(contourLimit, innerPolygons.getContourID(i) + 1);
+		}
+		return contourLimit;
+	}
+
+	private void setPolygon(final int contourID) {
+		Point2D.Double vertices[] = getPolygonVertices(outerPolygons, outerAdjustedPolygons, contourID);
+		if (vertices == null) {
+			vertices = getPolygonVertices(innerPolygons, innerAdjustedPolygons, contourID);
+			innerCurves[contourID] = vertices != null;
+		} else {
+			innerCurves[contourID] = false;
+		}
 
+		cornerGeometry.set(contourID, vertices != null ? calculateCornerGeometry(vertices) : null);
+	}
+
+	/** Returns the vertices of a polygon in double precision, the adjusted vertices if there are any, or null
+	 * if there is no such polygon
+	 */
+	private static Point2D.Double[] getPolygonVertices(final Contour polygons,
+			final HashMap<Integer, Point2D.Double[]> adjustedPolygons, final int contourID) {
+		if (!polygons.hasContour(contourID)) {
+			return null;
+		}
+		if (adjustedPolygons != null && adjustedPolygons.containsKey(contourID)) {
+			return adjustedPolygons.get(contourID);
+		}
+
+		Point2D.Double vertices[] = new Point2D.Double[polygons.getContourSize(contourID)];
+		for (int j = 0; j < vertices.length; ++j) {
+			vertices[j] = new Point2D.Double(polygons.getX(contourID, j), polygons.getY(contourID, j));
+		}
+		return vertices;
 	}
 
 	private void buildDocument() {
 		if (curves != null) {
 			for (int i = 0; i < curves.length; ++i) {
-				svgRoot.removeChild(curves[i]);
+				if (curves[i] != null) {
+					svgRoot.removeChild(curves[i]);
+				}
 			}
 		}
 
@@ -160,166 +328,366 @@ public class CurveBuilder {
 		curves = new Element[curveAmount];
 
 		for (int i = 0; i < curveAmount; ++i) {
-			if (outerPolygons.hasContour(i)) {
-				curves[i] = document.createElementNS(svgNS, "path");
-
-				curves[i].setAttribute("stroke", "none");
-				curves[i].setAttribute("fill", CURVE_FILL_COLOR);
-				curves[i].setAttribute("stroke-width", CURVE_STROKE_WIDTH);
-
+			curves[i] = createElement(i);
+			if (curves[i] != null) {
 				svgRoot.appendChild(curves[i]);
 			}
+		}
+	}
 
-			if (innerPolygons.hasContour(i)) {
-				curves[i] = document.createElementNS(svgNS, "path");
+	private Element createElement(final int index) {
+		Element curve = null;
 
-				curves[i].setAttribute("stroke", "none");
-				curves[i].setAttribute("fill", BACKGROUND_COLOR);
-				curves[i].setAttribute("stroke-width", CURVE_STROKE_WIDTH);
-				svgRoot.appendChild(curves[i]);
+		if (outerPolygons.hasContour(index)) {
+			curve = document.createElementNS(svgNS, "path");
+
+			curve.setAttribute("stroke", "none");
+			curve.setAttribute("fill", CURVE_FILL_COLOR);
+			curve.setAttribute("stroke-width", CURVE_STROKE_WIDTH);
+
+			// holes are cut out of the path of their outer contour
+			if (contourTree != null) {
+				curve.setAttribute("fill-rule", "evenodd");
 			}
 		}
+
+		if (innerPolygons.hasContour(index) && contourTree == null) {
+			curve = document.createElementNS(svgNS, "path");
+
+			curve.setAttribute("stroke", "none");
+			curve.setAttribute("fill", BACKGROUND_COLOR);
+			curve.setAttribute("stroke-width", CURVE_STROKE_WIDTH);
+		}
+		return curve;
 	}
 
-	private void calculateCenterPoints() {
-		// iterate over polygons and calculate their center points
-		Iterator<Point[]> polygonIt = polygonsVertices.iterator();
+	/** Replaces the element of a changed curve, keeping the elements in the order of the contour IDs
+	 * The new element is inserted before nextCurve, the element of the next curve or null for the last one
+	 */
+	private void replaceElement(final int index, final Element nextCurve) {
+		if (curves[index] != null) {
+			svgRoot.removeChild(curves[index]);
+		}
+
+		curves[index] = createElement(index);
+		if (curves[index] != null) {
+			curves[index].setAttribute("d", contourTree != null ? getCompoundCurveData(index) : curveData[index]);
+			svgRoot.insertBefore(curves[index], nextCurve);
+		}
+	}
 
-		while (polygonIt.hasNext()) {
-			Point currentPolygon[] = polygonIt.next();
-			Point2D.Double centerPoints[] = new Point2D.Double[currentPolygon.length];
+	/** Returns the parameter independent data of the corners of a polygon, CORNER_SIZE values per corner:
+	 * the center point of the edge before the corner, the corner vertex and the distance of the corner from the
+	 * line between the center points of its two edges. The curve around corner j runs from center point j
+	 * to center point j + 1
+	 */
+	private static double[] calculateCornerGeometry(final Point2D.Double vertices[]) {
+		int cornerCount = vertices.length;
+		double geometry[] = new double[cornerCount * CORNER_SIZE];
+
+		// build center points between source vertices
+		for (int i = 0; i < cornerCount; ++i) {
+			Point2D.Double vertex = vertices[i];
+			Point2D.Double nextVertex = vertices[(i + 1) % cornerCount];
+
+			geometry[i * CORNER_SIZE] = (vertex.x + nextVertex.x) / 2;
+			geometry[i * CORNER_SIZE + 1] = (vertex.y + nextVertex.y) / 2;
+			geometry[i * CORNER_SIZE + 2] = nextVertex.x;
+			geometry[i * CORNER_SIZE + 3] = nextVertex.y;
+		}
 
-			// build center points between source vertices
-			for (int i = 0; i < currentPolygon.length; ++i) {
-				int currentVertex = i % currentPolygon.length;
-				int nextVertex = (i + 1) % currentPolygon.length;
+		// calculate distance from corner vertex to the line that
+		// connects two center points
+		for (int i = 0; i < cornerCount; ++i) {
+			int offset = i * CORNER_SIZE;
+			int nextOffset = ((i + 1) % cornerCount) * CORNER_SIZE;
 
-				double centerPointX = (currentPolygon[currentVertex].getX() + currentPolygon[nextVertex]
-						.getX()) / 2;
-				double centerPointY = (currentPolygon[currentVertex].getY() + currentPolygon[nextVertex]
-						.getY()) / 2;
-				centerPoints[i] = new Point2D.Double(centerPointX, centerPointY);
-			}
+			double lineX = geometry[nextOffset] - geometry[offset];
+			double lineY = geometry[nextOffset + 1] - geometry[offset + 1];
+			double cornerX = geometry[offset + 2] - geometry[offset];
+			double cornerY = geometry[offset + 3] - geometry[offset + 1];
 
-			this.centerPoints.add(centerPoints);
+			double distance = (lineX * cornerY - lineY * cornerX) / java.lang.Math.sqrt(lineX * lineX + lineY * lineY);
+			geometry[offset + 4] = java.lang.Math.abs(distance);
 		}
+
+		return geometry;
 	}
 
+	/** Builds the path data of all curves again from the cached corner geometry, for example after the
+	 * curve parameters changed
+	 */
 	public void buildCurves() {
 		// iterate over polygons and calculate the curve's control points
-		for (int i = 0; i < polygonsVertices.size(); ++i) {
-			Point[] vertices = polygonsVertices.get(i);
-			Point2D.Double centerPoints[] = this.centerPoints.get(i);
-
-			boolean isNewCurveSegment = true;
-			String curveCoordinates = new String();
-
-			// calculate control points of curve
-			curveCoordinates = curveCoordinates.concat("M "
-					+ Integer.toString((int) (centerPoints[0].x
-							/ SOURCE_IMG_WIDTH * VIEWBOX_WIDTH))
-					+ " "
-					+ Integer.toString((int) (centerPoints[0].y
-							/ SOURCE_IMG_HEIGHT * VIEWBOX_HEIGHT)));
-
-			for (int j = 0; j < centerPoints.length; ++j) {
-				int centerPointIndex = j % centerPoints.length;
-
-				// calculate distance from corner vertex to the line that
-				// connects two center points
-				Point2D.Double curveSegmentStart = centerPoints[centerPointIndex];
-				Point2D.Double curveSegmentEnd = centerPoints[(j + 1)
-						% centerPoints.length];
-				Point2D.Double cornerVertex = new Point2D.Double(
-						vertices[(j + 1) % vertices.length].x,
-						vertices[(j + 1) % vertices.length].y);
-
-				double distance = Math.pointLineDistance(curveSegmentStart,
-						curveSegmentEnd, cornerVertex);
-				double angle = factor * (distance - 0.5) / distance;
-
-				// System.out.println("Angle: " + angle + " Distance: " +
-				// distance + " Factor: " + factor);
-
-				if (angle < minimumAngle) {
-					angle = minimumAngle;
-				}
+		for (int i = 0; i < cornerGeometry.size(); ++i) {
+			curveData[i] = buildCurve(i);
+		}
 
-				// draw lines from curveSegmentStart->cornerVertex and
-				// cornerVertex->curveSegmentEnd
-				if (angle > maximumAngle) {
-					curveCoordinates = curveCoordinates.concat(" L "
-							+ java.lang.Double.toString((curveSegmentStart.x
-									/ SOURCE_IMG_WIDTH * VIEWBOX_WIDTH))
-							+ " "
-							+ java.lang.Double.toString((curveSegmentStart.y
-									/ SOURCE_IMG_HEIGHT * VIEWBOX_HEIGHT))
-							+ " "
-							+ java.lang.Double.toString((cornerVertex.x
-									/ SOURCE_IMG_WIDTH * VIEWBOX_WIDTH))
-							+ " "
-							+ java.lang.Double.toString((cornerVertex.y
-									/ SOURCE_IMG_HEIGHT * VIEWBOX_HEIGHT))
-							+ " L "
-							+ java.lang.Double.toString((cornerVertex.x
-									/ SOURCE_IMG_WIDTH * VIEWBOX_WIDTH))
-							+ " "
-							+ java.lang.Double.toString((cornerVertex.y
-									/ SOURCE_IMG_HEIGHT * VIEWBOX_HEIGHT))
-							+ " "
-							+ java.lang.Double.toString((curveSegmentEnd.x
-									/ SOURCE_IMG_WIDTH * VIEWBOX_WIDTH))
-							+ " "
-							+ java.lang.Double.toString((curveSegmentEnd.y
-									/ SOURCE_IMG_HEIGHT * VIEWBOX_HEIGHT)));
-					isNewCurveSegment = true;
-				} else {
-					Point2D.Double controlPoint1 = lerp(curveSegmentStart,
-							cornerVertex, angle);
-					Point2D.Double controlPoint2 = lerp(curveSegmentEnd,
-							cornerVertex, angle);
-
-					if (isNewCurveSegment) {
-						curveCoordinates = curveCoordinates.concat(" C");
-						isNewCurveSegment = false;
-					}
+		if (curves != null) {
+			updateElements();
+		}
+	}
 
-					curveCoordinates = curveCoordinates.concat(" "
-							+ java.lang.Double.toString((controlPoint1.x
-									/ SOURCE_IMG_WIDTH * VIEWBOX_WIDTH))
-							+ " "
-							+ java.lang.Double.toString((controlPoint1.y
-									/ SOURCE_IMG_HEIGHT * VIEWBOX_HEIGHT))
-							+ " "
-							+ java.lang.Double.toString((controlPoint2.x
-									/ SOURCE_IMG_WIDTH * VIEWBOX_WIDTH))
-							+ " "
-							+ java.lang.Double.toString((controlPoint2.y
-									/ SOURCE_IMG_HEIGHT * VIEWBOX_HEIGHT))
-							+ " "
-							+ java.lang.Double.toString((curveSegmentEnd.x
-									/ SOURCE_IMG_WIDTH * VIEWBOX_WIDTH))
-							+ " "
-							+ java.lang.Double.toString((curveSegmentEnd.y
-									/ SOURCE_IMG_HEIGHT * VIEWBOX_HEIGHT)));
-				}
+	private String buildCurve(final int index) {
+		double geometry[] = cornerGeometry.get(index);
+		if (geometry == null) {
+			return null;
+		}
+
+		encodeCurve(geometry);
+		return pathData.toString();
+	}
+
+	/** Puts the path data of a curve into the path data encoder, only the control points depend on the
+	 * curve parameters
+	 */
+	private void encodeCurve(final double geometry[]) {
+		int cornerCount = geometry.length / CORNER_SIZE;
+		if (alphas.length < cornerCount) {
+			alphas = new double[java.lang.Math.max(cornerCount, alphas.length * 2)];
+			corners = new boolean[alphas.length];
+		}
+
+		// calculate the position of the control points on the lines to each corner
+		for (int j = 0; j < cornerCount; ++j) {
+			double distance = geometry[j * CORNER_SIZE + 4];
+			double angle = factor * (distance - 0.5) / distance;
+
+			if (angle < minimumAngle) {
+				angle = minimumAngle;
 			}
+			alphas[j] = angle;
+			corners[j] = angle > maximumAngle;
+		}
 
-			curves[i].setAttribute("d", curveCoordinates);
+		isNewCurveSegment = true;
+		pathData.reset();
+
+		if (curveOptimizer != null) {
+			encodeOptimizedCurve(geometry, cornerCount);
+			return;
 		}
+
+		if (pathData.isCompact()) {
+			pathData.moveTo(toViewBoxX(geometry[0]), toViewBoxY(geometry[1]));
+		} else {
+			pathData.appendCommand('M');
+			appendPoint(geometry[0], geometry[1]);
+		}
+
+		for (int j = 0; j < cornerCount; ++j) {
+			encodeSegment(geometry, j, cornerCount);
+		}
+	}
+
+	/** Puts the path data of a curve into the path data encoder after runs of its segments have been joined by
+	 * the curve optimizer. The curve starts at the end of the first segment
+	 */
+	private void encodeOptimizedCurve(final double geometry[], final int cornerCount) {
+		int segmentCount = curveOptimizer.optimize(geometry, alphas, corners, cornerCount, optimizationTolerance);
+
+		double startX = geometry[(1 % cornerCount) * CORNER_SIZE];
+		double startY = geometry[(1 % cornerCount) * CORNER_SIZE + 1];
+		if (pathData.isCompact()) {
+			pathData.moveTo(toViewBoxX(startX), toViewBoxY(startY));
+		} else {
+			pathData.appendCommand('M');
+			appendPoint(startX, startY);
+		}
+
+		for (int i = 0; i < segmentCount; ++i) {
+			int j = curveOptimizer.getSegmentEnd(i);
+			if (!curveOptimizer.isJoined(i)) {
+				encodeSegment(geometry, j, cornerCount);
+				continue;
+			}
+
+			int nextOffset = ((j + 1) % cornerCount) * CORNER_SIZE;
+			appendCurve(curveOptimizer.getControl(i, 0), curveOptimizer.getControl(i, 1), curveOptimizer.getControl(i, 2),
+					curveOptimizer.getControl(i, 3), geometry[nextOffset], geometry[nextOffset + 1]);
+		}
+	}
+
+	/** Appends segment j, the curve around corner j from center point j to center point j + 1
+	 */
+	private void encodeSegment(final double geometry[], final int j, final int cornerCount) {
+		int offset = j * CORNER_SIZE;
+		int nextOffset = ((j + 1) % cornerCount) * CORNER_SIZE;
+
+		double startX = geometry[offset];
+		double startY = geometry[offset + 1];
+		double cornerX = geometry[offset + 2];
+		double cornerY = geometry[offset + 3];
+		double endX = geometry[nextOffset];
+		double endY = geometry[nextOffset + 1];
+		double angle = alphas[j];
+
+		// draw lines from curveSegmentStart->cornerVertex and
+		// cornerVertex->curveSegmentEnd
+		if (corners[j] && pathData.isCompact()) {
+			// the curve already ends at the segment start
+			pathData.lineTo(toViewBoxX(cornerX), toViewBoxY(cornerY));
+			pathData.lineTo(toViewBoxX(endX), toViewBoxY(endY));
+		} else if (corners[j]) {
+			pathData.appendCommand('L');
+			appendPoint(startX, startY);
+			appendPoint(cornerX, cornerY);
+			pathData.appendCommand('L');
+			appendPoint(cornerX, cornerY);
+			appendPoint(endX, endY);
+			isNewCurveSegment = true;
+		} else {
+			// the control points lie on the lines from the center points to the corner
+			double controlX1 = (1 - angle) * startX + angle * cornerX;
+			double controlY1 = (1 - angle) * startY + angle * cornerY;
+			double controlX2 = (1 - angle) * endX + angle * cornerX;
+			double controlY2 = (1 - angle) * endY + angle * cornerY;
+
+			appendCurve(controlX1, controlY1, controlX2, controlY2, endX, endY);
+		}
+	}
+
+	private void appendCurve(final double controlX1, final double controlY1, final double controlX2,
+			final double controlY2, final double endX, final double endY) {
+		if (pathData.isCompact()) {
+			pathData.curveTo(toViewBoxX(controlX1), toViewBoxY(controlY1), toViewBoxX(controlX2), toViewBoxY(controlY2),
+					toViewBoxX(endX), toViewBoxY(endY));
+			return;
+		}
+
+		if (isNewCurveSegment) {
+			pathData.appendCommand('C');
+			isNewCurveSegment = false;
+		}
+
+		appendPoint(controlX1, controlY1);
+		appendPoint(controlX2, controlY2);
+		appendPoint(endX, endY);
+	}
+
+	/** Appends a point in view box coordinates
+	 */
+	private void appendPoint(final double x, final double y) {
+		pathData.appendNumber(toViewBoxX(x));
+		pathData.appendNumber(toViewBoxY(y));
+	}
+
+	private static double toViewBoxX(final double x) {
+		return x / SOURCE_IMG_WIDTH * VIEWBOX_WIDTH;
+	}
+
+	private static double toViewBoxY(final double y) {
+		return y / SOURCE_IMG_HEIGHT * VIEWBOX_HEIGHT;
 	}
 
-	private Point2D.Double lerp(Point2D.Double start, Point2D.Double end, double factor) {
-		Point2D.Double result = new Point2D.Double();
-		result.setLocation((1 - factor) * start.x + factor * end.x,
-				(1 - factor) * start.y + factor * end.y);
-		return result;
+	private void updateElements() {
+		for (int i = 0; i < curves.length; ++i) {
+			if (curves[i] != null) {
+				curves[i].setAttribute("d", contourTree != null ? getCompoundCurveData(i) : curveData[i]);
+			}
+		}
+	}
+
+	/** Returns the path data of an outer curve followed by the curves of its holes, to be filled with the
+	 * evenodd rule. Needs the contour tree passed to findCurves
+	 */
+	public String getCompoundCurveData(final int index) {
+		StringBuilder compoundData = new StringBuilder(curveData[index]);
+		for (int i = 0; i < contourTree.getChildCount(index); ++i) {
+			compoundData.append(' ').append(curveData[contourTree.getChild(index, i)]);
+		}
+		return compoundData.toString();
 	}
 
 	public SVGDocument getDocument() {
+		if (document == null) {
+			createDocument();
+
+			// fill in curves that have been found before the document was requested
+			if (curveData != null) {
+				buildDocument();
+				updateElements();
+			}
+		}
 		return document;
 	}
 
+	public int getCurveCount() {
+		return curveData == null ? 0 : curveData.length;
+	}
+
+	/** Returns the SVG path data of a curve, curves are indexed by contour ID, IDs without a contour have no curve (null)
+	 */
+	public String getCurveData(final int index) {
+		return curveData[index];
+	}
+
+	public boolean isInnerCurve(final int index) {
+		return innerCurves[index];
+	}
+
+	public boolean isCompoundOutput() {
+		return isCompoundOutput;
+	}
+
+	/** If enabled each outer curve and its holes form one path with fill-rule evenodd, the holes stay
+	 * transparent instead of being painted white on top
+	 */
+	public void setCompoundOutput(final boolean isCompoundOutput) {
+		this.isCompoundOutput = isCompoundOutput;
+	}
+
+	public int getPrecision() {
+		return pathData.getPrecision();
+	}
+
+	/** Sets the number of digits after the decimal point of the path coordinates, 0 to
+	 * PathDataEncoder.MAX_PRECISION. Takes effect with the next curves that are built
+	 */
+	public void setPrecision(final int precision) {
+		pathData.setPrecision(precision);
+	}
+
+	public boolean isCompactOutput() {
+		return pathData.isCompact();
+	}
+
+	/** If enabled the path data uses relative commands without repeated command letters and redundant
+	 * separators, lines in the same direction are merged. Takes effect with the next curves that are built
+	 */
+	public void setCompactOutput(final boolean isCompactOutput) {
+		pathData.setCompact(isCompactOutput);
+	}
+
+	public boolean isCurveOptimization() {
+		return curveOptimizer != null;
+	}
+
+	/** If enabled runs of curve segments that bend the same way are joined into single curves as long as they
+	 * stay within the optimization tolerance, like opticurve in potrace. Takes effect with the next curves that
+	 * are built
+	 */
+	public void setCurveOptimization(final boolean isCurveOptimization) {
+		if (isCurveOptimization && curveOptimizer == null) {
+			curveOptimizer = new CurveOptimizer();
+		} else if (!isCurveOptimization) {
+			curveOptimizer = null;
+		}
+	}
+
+	public double getOptimizationTolerance() {
+		return optimizationTolerance;
+	}
+
+	/** Sets the maximum distance in source pixels of a joined curve from the polygon edges, 0.2 by default
+	 */
+	public void setOptimizationTolerance(final double optimizationTolerance) {
+		if (!(optimizationTolerance >= 0))
+			throw new IllegalArgumentException("invalid optimization tolerance " + optimizationTolerance);
+
+		this.optimizationTolerance = optimizationTolerance;
+	}
+
 	public double getFactor() {
 		return factor;
 	}
@@ -347,11 +715,103 @@ public class CurveBuilder {
 	public void save() {
 		try {
 			OutputStream outputStream = new FileOutputStream("test.svg");
-			Writer out = new OutputStreamWriter(outputStream);
-			DOMUtilities.writeDocument(document, out);
+			Writer out = new BufferedWriter(new OutputStreamWriter(outputStream, "UTF-8"));
+			writeSVG(out);
 			out.flush();
 			out.close();
 		} catch (Exception e) {
 		}
 	}
+
+	/** Writes the curves found by findCurves() as an SVG file straight from the path data, no document is built
+	 * The writer should be buffered
+	 */
+	public void writeSVG(final Writer out) throws IOException {
+		writeHeader(out);
+		for (int i = 0; i < curveAmount; ++i) {
+			if (curveData[i] == null || (innerCurves[i] && contourTree != null)) {
+				continue;
+			}
+
+			writePathStart(out, innerCurves[i], contourTree != null);
+			out.write(curveData[i]);
+			if (contourTree != null) {
+				for (int j = 0; j < contourTree.getChildCount(i); ++j) {
+					out.write(' ');
+					out.write(curveData[contourTree.getChild(i, j)]);
+				}
+			}
+			writePathEnd(out);
+		}
+		writeFooter(out);
+	}
+
+	/** Finds the curves of the polygons like findCurves() and writes them as an SVG file one by one, each curve
+	 * is dropped once it is written. Neither a document nor the path data are kept, so the memory does not grow
+	 * with the output. The curves of the builder are not changed. The writer should be buffered
+	 */
+	public void writeSVG(final Contour outerPolygons, final HashMap<Integer, Point2D.Double[]> outerAdjustedPolygons,
+			final Contour innerPolygons, final HashMap<Integer, Point2D.Double[]> innerAdjustedPolygons,
+			final ContourTree contourTree, final Writer out) throws IOException {
+		if (isCompoundOutput && contourTree == null)
+			throw new IllegalArgumentException("compound output needs a contour tree");
+
+		int contourLimit = getContourLimit(outerPolygons, innerPolygons);
+
+		writeHeader(out);
+		for (int i = 0; i < contourLimit; ++i) {
+			Point2D.Double vertices[] = getPolygonVertices(outerPolygons, outerAdjustedPolygons, i);
+			boolean isInner = vertices == null;
+			if (isInner) {
+				if (isCompoundOutput) {
+					// holes are written with their outer curve
+					continue;
+				}
+				vertices = getPolygonVertices(innerPolygons, innerAdjustedPolygons, i);
+				if (vertices == null) {
+					continue;
+				}
+			}
+
+			writePathStart(out, isInner, isCompoundOutput);
+			encodeCurve(calculateCornerGeometry(vertices));
+			pathData.writeTo(out);
+			if (isCompoundOutput) {
+				for (int j = 0; j < contourTree.getChildCount(i); ++j) {
+					Point2D.Double holeVertices[] = getPolygonVertices(innerPolygons, innerAdjustedPolygons,
+							contourTree.getChild(i, j));
+					out.write(' ');
+					encodeCurve(calculateCornerGeometry(holeVertices));
+					pathData.writeTo(out);
+				}
+			}
+			writePathEnd(out);
+		}
+		writeFooter(out);
+	}
+
+	private void writeHeader(final Writer out) throws IOException {
+		out.write("<svg xmlns=\"" + svgNS + "\" width=\"100%\" height=\"100%\" viewBox=\"0 0 " + VIEWBOX_WIDTH + " "
+				+ VIEWBOX_HEIGHT + "\">\n");
+	}
+
+	/** Writes the attributes of a path element like createElement(), up to the opening quote of the path data
+	 */
+	private void writePathStart(final Writer out, final boolean isInner, final boolean isCompoundOutput) throws IOException {
+		out.write("<path stroke=\"none\" fill=\"");
+		out.write(isInner ? BACKGROUND_COLOR : CURVE_FILL_COLOR);
+		out.write("\" stroke-width=\"" + CURVE_STROKE_WIDTH + "\"");
+		if (isCompoundOutput) {
+			out.write(" fill-rule=\"evenodd\"");
+		}
+		out.write(" d=\"");
+	}
+
+	private void writePathEnd(final Writer out) throws IOException {
+		out.write("\"/>\n");
+	}
+
+	private void writeFooter(final Writer out) throws IOException {
+		out.write("</svg>\n");
+	}
 }
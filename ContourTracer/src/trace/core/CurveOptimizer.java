@@ -0,0 +1,382 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2011 Andre Groeschel
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+
+package trace.core;
+
+/** The CurveOptimizer joins runs of curve segments into single cubic Bezier curves like opticurve in potrace
+ * A run may be joined if its segments bend the same way, contain no corner and turn by less than 179 degrees
+ * in total. The joined curve has to stay within the tolerance of the polygon edges and must not cut the
+ * corners by more than the original segments do. Among the valid joins dynamic programming picks the fewest
+ * segments and, among those, the smallest penalty
+ * Segment j of a curve runs from center point j to center point j + 1 of the corner geometry of CurveBuilder
+ * around the corner vertex j, alphas[j] places its control points. The optimized curve starts at the end of
+ * segment 0. The arrays are reused for all curves, the class is not synchronized
+ */
+class CurveOptimizer {
+	private final static double COS179 = java.lang.Math.cos(java.lang.Math.toRadians(179));
+
+	// corner vertices and segment ends
+	private double vertexX[] = new double[0];
+	private double vertexY[] = new double[0];
+	private double endX[] = new double[0];
+	private double endY[] = new double[0];
+
+	// +1 or -1 for the turning direction of a curve segment, 0 for a corner
+	private int convexities[] = new int[0];
+	// area enclosed by the curve up to the end of each segment
+	private double areas[] = new double[0];
+
+	// best path over the segment ends: previous end, penalty, segment count and control points of the join
+	private int previous[] = new int[0];
+	private double penalties[] = new double[0];
+	private int lengths[] = new int[0];
+	private double controls[] = new double[0];
+
+	// the optimized segments, see optimize()
+	private int segmentEnds[] = new int[0];
+	private boolean isJoined[] = new boolean[0];
+	private double joinedControls[] = new double[0];
+	private int segmentCount;
+
+	// scratch values of the join that was tested last
+	private double joinPenalty;
+	private double control1X;
+	private double control1Y;
+	private double control2X;
+	private double control2Y;
+
+	/** Optimizes a curve of cornerCount segments, corners[j] is set if segment j is drawn as two lines. Returns
+	 * the number of optimized segments
+	 */
+	int optimize(final double geometry[], final double alphas[], final boolean corners[], final int cornerCount,
+			final double tolerance) {
+		int m = cornerCount;
+		ensureCapacity(m);
+
+		for (int j = 0; j < m; ++j) {
+			int nextOffset = ((j + 1) % m) * CurveBuilder.CORNER_SIZE;
+			vertexX[j] = geometry[j * CurveBuilder.CORNER_SIZE + 2];
+			vertexY[j] = geometry[j * CurveBuilder.CORNER_SIZE + 3];
+			endX[j] = geometry[nextOffset];
+			endY[j] = geometry[nextOffset + 1];
+		}
+
+		// pre-calculate convexity
+		for (int j = 0; j < m; ++j) {
+			if (corners[j]) {
+				convexities[j] = 0;
+			} else {
+				int before = (j + m - 1) % m;
+				int after = (j + 1) % m;
+				convexities[j] = (int) java.lang.Math.signum(parallelogram(vertexX[before], vertexY[before], vertexX[j],
+						vertexY[j], vertexX[after], vertexY[after]));
+			}
+		}
+
+		// pre-calculate areas, relative to the first corner vertex
+		double area = 0;
+		areas[0] = 0;
+		for (int i = 0; i < m; ++i) {
+			int i1 = (i + 1) % m;
+			if (!corners[i1]) {
+				double alpha = alphas[i1];
+				area += 0.3 * alpha * (4 - alpha)
+						* parallelogram(endX[i], endY[i], vertexX[i1], vertexY[i1], endX[i1], endY[i1]) / 2;
+				area += parallelogram(vertexX[0], vertexY[0], endX[i], endY[i], endX[i1], endY[i1]) / 2;
+			}
+			areas[i + 1] = area;
+		}
+
+		previous[0] = -1;
+		penalties[0] = 0;
+		lengths[0] = 0;
+
+		for (int j = 1; j <= m; ++j) {
+			// calculate best path from 0 to j
+			previous[j] = j - 1;
+			penalties[j] = penalties[j - 1];
+			lengths[j] = lengths[j - 1] + 1;
+
+			for (int i = j - 2; i >= 0; --i) {
+				if (!tryJoin(i, j % m, m, alphas, tolerance)) {
+					// a longer run can not be joined either
+					break;
+				}
+				if (lengths[j] > lengths[i] + 1 || (lengths[j] == lengths[i] + 1 && penalties[j] > penalties[i] + joinPenalty)) {
+					previous[j] = i;
+					penalties[j] = penalties[i] + joinPenalty;
+					lengths[j] = lengths[i] + 1;
+					controls[j * 4] = control1X;
+					controls[j * 4 + 1] = control1Y;
+					controls[j * 4 + 2] = control2X;
+					controls[j * 4 + 3] = control2Y;
+				}
+			}
+		}
+
+		segmentCount = lengths[m];
+		for (int i = segmentCount - 1, j = m; i >= 0; --i) {
+			segmentEnds[i] = j % m;
+			isJoined[i] = previous[j] != j - 1;
+			System.arraycopy(controls, j * 4, joinedControls, i * 4, 4);
+			j = previous[j];
+		}
+		return segmentCount;
+	}
+
+	/** Returns the original segment that optimized segment i ends with
+	 */
+	int getSegmentEnd(final int i) {
+		return segmentEnds[i];
+	}
+
+	/** Returns true if optimized segment i joins several segments, it starts at the end of the previous one
+	 */
+	boolean isJoined(final int i) {
+		return isJoined[i];
+	}
+
+	/** Returns the control point coordinate k (x1, y1, x2, y2) of a joined segment
+	 */
+	double getControl(final int i, final int k) {
+		return joinedControls[i * 4 + k];
+	}
+
+	/** Tests if the segments i + 1 to j can be joined into one curve from the end of segment i to the end of
+	 * segment j, like opti_penalty in potrace. If so, the control points and the penalty of the join are set
+	 */
+	private boolean tryJoin(final int i, final int j, final int m, final double alphas[], final double tolerance) {
+		if (i == j) {
+			// a full loop can never be joined
+			return false;
+		}
+
+		// check convexity, corner-freeness, and maximum bend < 179 degrees
+		int i1 = (i + 1) % m;
+		int convexity = convexities[i1];
+		if (convexity == 0) {
+			return false;
+		}
+		double edgeX = vertexX[i1] - vertexX[i];
+		double edgeY = vertexY[i1] - vertexY[i];
+		double edgeLength = java.lang.Math.sqrt(edgeX * edgeX + edgeY * edgeY);
+		for (int k = i1; k != j;) {
+			int k1 = (k + 1) % m;
+			int k2 = (k + 2) % m;
+			if (convexities[k1] != convexity) {
+				return false;
+			}
+
+			double nextEdgeX = vertexX[k2] - vertexX[k1];
+			double nextEdgeY = vertexY[k2] - vertexY[k1];
+			if (java.lang.Math.signum(edgeX * nextEdgeY - edgeY * nextEdgeX) != convexity) {
+				return false;
+			}
+			if (edgeX * nextEdgeX + edgeY * nextEdgeY < edgeLength
+					* java.lang.Math.sqrt(nextEdgeX * nextEdgeX + nextEdgeY * nextEdgeY) * COS179) {
+				return false;
+			}
+			k = k1;
+		}
+
+		// the curve we're working in
+		double x0 = endX[i];
+		double y0 = endY[i];
+		double x1 = vertexX[i1];
+		double y1 = vertexY[i1];
+		double x2 = vertexX[j];
+		double y2 = vertexY[j];
+		double x3 = endX[j];
+		double y3 = endY[j];
+
+		// determine its area
+		double area = areas[j] - areas[i];
+		area -= parallelogram(vertexX[0], vertexY[0], endX[i], endY[i], endX[j], endY[j]) / 2;
+		if (i >= j) {
+			area += areas[m];
+		}
+
+		// find intersection o of p0p1 and p2p3. Let t,s such that o = interval(t,p0,p1) = interval(s,p3,p2).
+		// Let a be the area of the triangle (p0,o,p3)
+		double a1 = parallelogram(x0, y0, x1, y1, x2, y2);
+		double a2 = parallelogram(x0, y0, x1, y1, x3, y3);
+		double a3 = parallelogram(x0, y0, x2, y2, x3, y3);
+		double a4 = a1 + a3 - a2;
+		if (a2 == a1) {
+			return false;
+		}
+
+		double t = a3 / (a3 - a4);
+		double s = a2 / (a2 - a1);
+		double a = a2 * t / 2.0;
+		if (a == 0.0) {
+			return false;
+		}
+
+		// overall alpha of the curve from the relative area
+		double relativeArea = area / a;
+		if (!(relativeArea / 0.3 <= 4)) {
+			return false;
+		}
+		double alpha = 2 - java.lang.Math.sqrt(4 - relativeArea / 0.3);
+
+		control1X = x0 + t * alpha * (x1 - x0);
+		control1Y = y0 + t * alpha * (y1 - y0);
+		control2X = x3 + s * alpha * (x2 - x3);
+		control2Y = y3 + s * alpha * (y2 - y3);
+		joinPenalty = 0;
+
+		// check tangency with edges
+		for (int k = i1; k != j;) {
+			int k1 = (k + 1) % m;
+			double tangent = getTangent(x0, y0, x3, y3, vertexX[k], vertexY[k], vertexX[k1], vertexY[k1]);
+			if (tangent < -0.5) {
+				return false;
+			}
+
+			double pointX = getBezier(tangent, x0, control1X, control2X, x3);
+			double pointY = getBezier(tangent, y0, control1Y, control2Y, y3);
+			double lineX = vertexX[k1] - vertexX[k];
+			double lineY = vertexY[k1] - vertexY[k];
+			double d = java.lang.Math.sqrt(lineX * lineX + lineY * lineY);
+			if (d == 0.0) {
+				return false;
+			}
+
+			double d1 = parallelogram(vertexX[k], vertexY[k], vertexX[k1], vertexY[k1], pointX, pointY) / d;
+			if (java.lang.Math.abs(d1) > tolerance) {
+				return false;
+			}
+			if (lineX * (pointX - vertexX[k]) + lineY * (pointY - vertexY[k]) < 0
+					|| lineX * (pointX - vertexX[k1]) + lineY * (pointY - vertexY[k1]) > 0) {
+				return false;
+			}
+			joinPenalty += d1 * d1;
+			k = k1;
+		}
+
+		// check corners
+		for (int k = i; k != j;) {
+			int k1 = (k + 1) % m;
+			double tangent = getTangent(x0, y0, x3, y3, endX[k], endY[k], endX[k1], endY[k1]);
+			if (tangent < -0.5) {
+				return false;
+			}
+
+			double pointX = getBezier(tangent, x0, control1X, control2X, x3);
+			double pointY = getBezier(tangent, y0, control1Y, control2Y, y3);
+			double lineX = endX[k1] - endX[k];
+			double lineY = endY[k1] - endY[k];
+			double d = java.lang.Math.sqrt(lineX * lineX + lineY * lineY);
+			if (d == 0.0) {
+				return false;
+			}
+
+			double d1 = parallelogram(endX[k], endY[k], endX[k1], endY[k1], pointX, pointY) / d;
+			double d2 = parallelogram(endX[k], endY[k], endX[k1], endY[k1], vertexX[k1], vertexY[k1]) / d;
+			d2 *= 0.75 * alphas[k1];
+			if (d2 < 0) {
+				d1 = -d1;
+				d2 = -d2;
+			}
+			if (d1 < d2 - tolerance) {
+				return false;
+			}
+			if (d1 < d2) {
+				joinPenalty += (d1 - d2) * (d1 - d2);
+			}
+			k = k1;
+		}
+
+		return true;
+	}
+
+	/** Returns the parameter in [0, 1] where the tested curve from (x0, y0) to (x3, y3) is parallel to the line
+	 * from q0 to q1, or -1 if there is none
+	 */
+	private double getTangent(final double x0, final double y0, final double x3, final double y3, final double q0X,
+			final double q0Y, final double q1X, final double q1Y) {
+		double lineX = q1X - q0X;
+		double lineY = q1Y - q0Y;
+
+		// (1-t)^2 A + 2(1-t)t B + t^2 C = 0
+		double a = (control1X - x0) * lineY - (control1Y - y0) * lineX;
+		double b = (control2X - control1X) * lineY - (control2Y - control1Y) * lineX;
+		double c = (x3 - control2X) * lineY - (y3 - control2Y) * lineX;
+
+		// qa t^2 + qb t + qc = 0
+		double qa = a - 2 * b + c;
+		double qb = -2 * a + 2 * b;
+		double qc = a;
+
+		double discriminant = qb * qb - 4 * qa * qc;
+		if (qa == 0 || discriminant < 0) {
+			return -1.0;
+		}
+
+		double root = java.lang.Math.sqrt(discriminant);
+		double r1 = (-qb + root) / (2 * qa);
+		double r2 = (-qb - root) / (2 * qa);
+		if (r1 >= 0 && r1 <= 1) {
+			return r1;
+		} else if (r2 >= 0 && r2 <= 1) {
+			return r2;
+		} else {
+			return -1.0;
+		}
+	}
+
+	private static double getBezier(final double t, final double p0, final double p1, final double p2, final double p3) {
+		double s = 1 - t;
+		return s * s * s * p0 + 3 * (s * s * t) * p1 + 3 * (t * t * s) * p2 + t * t * t * p3;
+	}
+
+	/** Returns twice the signed area of the triangle (p0, p1, p2)
+	 */
+	private static double parallelogram(final double x0, final double y0, final double x1, final double y1,
+			final double x2, final double y2) {
+		return (x1 - x0) * (y2 - y0) - (x2 - x0) * (y1 - y0);
+	}
+
+	private void ensureCapacity(final int m) {
+		if (m + 1 > areas.length) {
+			int capacity = java.lang.Math.max(m + 1, areas.length * 2);
+			vertexX = new double[capacity];
+			vertexY = new double[capacity];
+			endX = new double[capacity];
+			endY = new double[capacity];
+			convexities = new int[capacity];
+			areas = new double[capacity];
+			previous = new int[capacity];
+			penalties = new double[capacity];
+			lengths = new int[capacity];
+			controls = new double[capacity * 4];
+			segmentEnds = new int[capacity];
+			isJoined = new boolean[capacity];
+			joinedControls = new double[capacity * 4];
+		}
+	}
+}
@@ -24,8 +24,13 @@ THE SOFTWARE.
 
 package trace.core;
 
+import java.awt.Rectangle;
+import java.awt.geom.Point2D;
+import java.util.HashMap;
+
 import tracer.gui.ImageComponent;
 import tracer.utils.Contour;
+import tracer.utils.ContourTree;
 
 /** The ImageTracer searches the contour of a binary image, finds the optimal polygon for each contour
  * and finally translates each polygon into a curve
@@ -39,6 +44,10 @@ public class ImageTracer {
 	private static Contour outerPolygons;
 	private static Contour innerPolygons;
 
+	// sub-pixel vertices of the polygons by contour ID
+	private static HashMap<Integer, Point2D.Double[]> outerAdjustedPolygons;
+	private static HashMap<Integer, Point2D.Double[]> innerAdjustedPolygons;
+
 	private ImageTracer() {}
 
 	public Potracer getContourTracer() {
@@ -54,14 +63,44 @@ public class ImageTracer {
 	}
 
 	public void setImage(final ImageComponent sourceImage){
-		contourTracer.setImage(sourceImage);
+		contourTracer.setImage(sourceImage.getPixels(), sourceImage.getImageWidth(), sourceImage.getImageHeight());
+	}
+
+	public Rectangle getRegion() {
+		return contourTracer.getRegion();
+	}
+
+	/** Limits trace() to the contours that lie in or cross a rectangle of the image, for example the visible part
+	 * of a large page. Null traces the whole image, see Potracer.setRegion()
+	 */
+	public void setRegion(final Rectangle region) {
+		contourTracer.setRegion(region);
 	}
 
 	public void trace() {
 		contourTracer.trace();
 
-		outerPolygons = polyBuilder.getPolygons(contourTracer.getOuterContour());
-		innerPolygons = polyBuilder.getPolygons(contourTracer.getInnerContour());	
+		outerAdjustedPolygons = new HashMap<Integer, Point2D.Double[]>();
+		innerAdjustedPolygons = new HashMap<Integer, Point2D.Double[]>();
+		outerPolygons = polyBuilder.getPolygons(contourTracer.getOuterContour(), outerAdjustedPolygons);
+		innerPolygons = polyBuilder.getPolygons(contourTracer.getInnerContour(), innerAdjustedPolygons);	
+	}
+
+	/** Traces a changed rectangle of the image again, only the polygons and curves of the changed contours
+	 * are searched again, see Potracer.retrace()
+	 */
+	public void retrace(final int left, final int top, final int right, final int bottom) {
+		if (outerPolygons == null)
+			throw new IllegalStateException("retrace needs a previous trace");
+
+		int changedIDs[] = contourTracer.retrace(left, top, right, bottom);
+
+		polyBuilder.updatePolygons(outerPolygons, outerAdjustedPolygons, contourTracer.getOuterContour(), changedIDs);
+		polyBuilder.updatePolygons(innerPolygons, innerAdjustedPolygons, contourTracer.getInnerContour(), changedIDs);
+
+		ContourTree contourTree = curveBuilder.isCompoundOutput() ? contourTracer.getContourTree() : null;
+		curveBuilder.updateCurves(outerPolygons, outerAdjustedPolygons, innerPolygons, innerAdjustedPolygons, contourTree,
+				changedIDs);
 	}
 
 	public Contour getOuterPolygons() {
@@ -72,6 +111,20 @@ public class ImageTracer {
 		return innerPolygons;
 	}
 
+	/** Returns the sub-pixel vertices of the outer polygons by contour ID, see PolygonBuilder.getPolygons()
+	 */
+	public HashMap<Integer, Point2D.Double[]> getOuterAdjustedPolygons() {
+		return outerAdjustedPolygons;
+	}
+
+	public HashMap<Integer, Point2D.Double[]> getInnerAdjustedPolygons() {
+		return innerAdjustedPolygons;
+	}
+
+	public PolygonBuilder getPolygonBuilder() {
+		return polyBuilder;
+	}
+
 	public CurveBuilder getCurveBuilder() {
 		return curveBuilder;
 	}
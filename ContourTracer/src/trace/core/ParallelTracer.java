@@ -0,0 +1,498 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2011 Andre Groeschel
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+
+package trace.core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import tracer.utils.Bitmap;
+import tracer.utils.Contour;
+
+/** The ParallelTracer traces a padded bitmap in horizontal bands on the common ForkJoinPool
+ * Every band follows the pieces of contours inside of it with the foreground on the left, turning
+ * right first. Pieces leaving a band are stitched with the pieces of the neighbouring bands, then each
+ * contour is rotated, holes are reversed and all are numbered like in the serial edge map trace
+ */
+class ParallelTracer {
+	private final static int MIN_BAND_HEIGHT = 64;
+	private final static int BANDS_PER_THREAD = 4;
+
+	private Bitmap paddedBitmap;
+	private Bitmap visitedEdges;
+	private boolean isCornerOutput;
+	private int turdSize;
+	private long keyStride;
+
+	private Band bands[];
+	// pieces are numbered over all bands, piece i of band b has the number pieceBase[b] + i
+	private int pieceBase[];
+	private int nextPiece[];
+
+	// all contours, in scan order of their start vertices after packing
+	private Cycle cycles[];
+
+	private Contour outerContour;
+	private Contour innerContour;
+
+	ParallelTracer(final Bitmap paddedBitmap, final boolean isCornerOutput, final int turdSize) {
+		this.paddedBitmap = paddedBitmap;
+		this.isCornerOutput = isCornerOutput;
+		this.turdSize = turdSize;
+		this.keyStride = paddedBitmap.getWidth() + 1;
+	}
+
+	/** Traces all contours and returns their number
+	 */
+	int trace() {
+		this.visitedEdges = new Bitmap(paddedBitmap.getWidth(), paddedBitmap.getHeight());
+
+		// the vertex rows 1 to height - 1 of the padded image hold all contour vertices
+		int vertexRows = paddedBitmap.getHeight() - 1;
+		int bandCount = Math.min(Math.max(1, vertexRows / MIN_BAND_HEIGHT),
+				ForkJoinPool.getCommonPoolParallelism() * BANDS_PER_THREAD);
+
+		this.bands = new Band[bandCount];
+		for (int i = 0; i < bandCount; ++i) {
+			bands[i] = new Band(i, 1 + (int) ((long) vertexRows * i / bandCount), 1 + (int) ((long) vertexRows * (i + 1) / bandCount));
+		}
+		ContourPacker.invokeParallel(bands);
+
+		stitchPieces();
+		Vector<Cycle> cycleList = findCycles();
+		this.cycles = cycleList.toArray(new Cycle[cycleList.size()]);
+
+		// the contours are brought into the order of the serial trace in parallel, then numbered and copied into place
+		Chunk chunks[] = new Chunk[bandCount];
+		for (int i = 0; i < bandCount; ++i) {
+			chunks[i] = new Chunk((int) ((long) cycles.length * i / bandCount), (int) ((long) cycles.length * (i + 1) / bandCount));
+		}
+		ContourPacker.invokeParallel(chunks);
+
+		// speckles get no contour ID
+		Vector<Cycle> keptCycles = new Vector<Cycle>();
+		for (int i = 0; i < cycles.length; ++i) {
+			if (!cycles[i].isDropped) {
+				keptCycles.add(cycles[i]);
+			}
+		}
+		this.cycles = keptCycles.toArray(new Cycle[keptCycles.size()]);
+
+		ContourPacker contourPacker = new ContourPacker();
+		contourPacker.pack(cycles, bandCount);
+		this.outerContour = contourPacker.getOuterContour();
+		this.innerContour = contourPacker.getInnerContour();
+
+		this.bands = null;
+		this.nextPiece = null;
+		this.visitedEdges = null;
+		return cycles.length;
+	}
+
+	Contour getOuterContour() {
+		return outerContour;
+	}
+
+	Contour getInnerContour() {
+		return innerContour;
+	}
+
+	/** Links every piece that leaves its band to the piece entering the neighbouring band at the same vertex
+	 */
+	private void stitchPieces() {
+		this.pieceBase = new int[bands.length];
+		int pieceCount = 0;
+		for (int i = 0; i < bands.length; ++i) {
+			pieceBase[i] = pieceCount;
+			pieceCount += bands[i].pieceCount;
+		}
+
+		HashMap<Long, Integer> entries = new HashMap<Long, Integer>();
+		for (int i = 0; i < bands.length; ++i) {
+			for (int j = 0; j < bands[i].pieceCount; ++j) {
+				if (bands[i].entryKeys[j] >= 0) {
+					entries.put(bands[i].entryKeys[j], pieceBase[i] + j);
+				}
+			}
+		}
+
+		this.nextPiece = new int[pieceCount];
+		for (int i = 0; i < bands.length; ++i) {
+			for (int j = 0; j < bands[i].pieceCount; ++j) {
+				// closed pieces follow themselves
+				long exitKey = bands[i].exitKeys[j];
+				nextPiece[pieceBase[i] + j] = exitKey >= 0 ? entries.get(exitKey) : pieceBase[i] + j;
+			}
+		}
+	}
+
+	/** Collects the closed pieces of all bands and the chains of open pieces, each one starts at its top left vertex
+	 */
+	private Vector<Cycle> findCycles() {
+		Vector<Cycle> cycles = new Vector<Cycle>();
+		boolean isUsed[] = new boolean[nextPiece.length];
+
+		for (int i = 0; i < bands.length; ++i) {
+			// the bands number their pieces from 0
+			for (int j = 0; j < bands[i].closedCycles.size(); ++j) {
+				bands[i].closedCycles.get(j).startPiece += pieceBase[i];
+			}
+			cycles.addAll(bands[i].closedCycles);
+			bands[i].closedCycles = null;
+		}
+
+		for (int firstPiece = 0; firstPiece < nextPiece.length; ++firstPiece) {
+			if (isUsed[firstPiece] || nextPiece[firstPiece] == firstPiece) {
+				continue;
+			}
+
+			Cycle cycle = new Cycle();
+			long startKey = Long.MAX_VALUE;
+			int piece = firstPiece;
+			do {
+				isUsed[piece] = true;
+				Band band = getBand(piece);
+				int index = piece - pieceBase[band.index];
+				int end = band.pieceOffsets[index + 1];
+
+				for (int i = band.pieceOffsets[index]; i < end; ++i) {
+					long key = band.vertexY[i] * keyStride + band.vertexX[i];
+					if (key < startKey) {
+						startKey = key;
+						cycle.startPiece = piece;
+						cycle.startVertex = i;
+					}
+				}
+				cycle.vertexCount += end - band.pieceOffsets[index];
+				piece = nextPiece[piece];
+			} while (piece != firstPiece);
+
+			// the pixel right of the start vertex is foreground for outer contours
+			cycle.startKey = startKey;
+			cycle.isHole = !paddedBitmap.get((int) (startKey % keyStride), (int) (startKey / keyStride));
+			cycles.add(cycle);
+		}
+		return cycles;
+	}
+
+	private Band getBand(final int piece) {
+		int low = 0;
+		int high = bands.length - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (pieceBase[middle] <= piece) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return bands[low];
+	}
+
+	/** A closed contour made of one or more pieces, the start is the top left vertex
+	 */
+	private static class Cycle extends ContourPacker.Block {
+		private int startPiece;
+		private int startVertex;
+		private int vertexCount;
+		private boolean isDropped;
+	}
+
+	/** Brings the contours first to last - 1 into the order of the serial trace
+	 */
+	private class Chunk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private int first;
+		private int last;
+
+		// the current contour, reused for all contours of the chunk
+		private int cycleX[];
+		private int cycleY[];
+		private int cycleSize;
+
+		// the finished contours in image coordinates
+		private int outputX[];
+		private int outputY[];
+		private int outputCount;
+
+		private Chunk(final int first, final int last) {
+			this.first = first;
+			this.last = last;
+		}
+
+		@Override
+		protected void compute() {
+			// corner output never needs more room than all vertices
+			int capacity = 0;
+			for (int id = first; id < last; ++id) {
+				capacity += cycles[id].vertexCount + 1;
+			}
+			this.cycleX = new int[64];
+			this.cycleY = new int[64];
+			this.outputX = new int[capacity];
+			this.outputY = new int[capacity];
+
+			for (int id = first; id < last; ++id) {
+				loadCycle(cycles[id]);
+				if (getArea() <= turdSize) {
+					cycles[id].isDropped = true;
+				} else {
+					addCycle(cycles[id]);
+				}
+			}
+			this.cycleX = null;
+			this.cycleY = null;
+		}
+
+		/** Copies the vertices of a cycle in the order of the serial trace, holes are walked backwards there
+		 */
+		private void loadCycle(final Cycle cycle) {
+			if (cycleX.length < cycle.vertexCount) {
+				this.cycleX = new int[cycle.vertexCount];
+				this.cycleY = new int[cycle.vertexCount];
+			}
+			this.cycleSize = 0;
+
+			int piece = cycle.startPiece;
+			int start = cycle.startVertex;
+			do {
+				Band band = getBand(piece);
+				int end = band.pieceOffsets[piece - pieceBase[band.index] + 1];
+
+				// the start piece is entered twice if the cycle does not start at its first vertex
+				for (int i = start; i < end && cycleSize < cycle.vertexCount; ++i) {
+					cycleX[cycleSize] = band.vertexX[i];
+					cycleY[cycleSize] = band.vertexY[i];
+					++cycleSize;
+				}
+
+				piece = nextPiece[piece];
+				band = getBand(piece);
+				start = band.pieceOffsets[piece - pieceBase[band.index]];
+			} while (cycleSize < cycle.vertexCount);
+
+			if (cycle.isHole) {
+				for (int i = 1, j = cycleSize - 1; i < j; ++i, --j) {
+					int x = cycleX[i];
+					int y = cycleY[i];
+					cycleX[i] = cycleX[j];
+					cycleY[i] = cycleY[j];
+					cycleX[j] = x;
+					cycleY[j] = y;
+				}
+			}
+		}
+
+		/** Returns the area enclosed by the loaded cycle, it is positive for the traced region like in the serial trace
+		 */
+		private long getArea() {
+			long area = 0;
+			for (int i = 0; i < cycleSize; ++i) {
+				int next = i + 1 < cycleSize ? i + 1 : 0;
+				area -= (long) cycleX[i] * (cycleY[next] - cycleY[i]);
+			}
+			return area;
+		}
+
+		/** Appends the loaded cycle in image coordinates, in corner output only the vertices where the direction changes
+		 */
+		private void addCycle(final Cycle cycle) {
+			cycle.sourceX = outputX;
+			cycle.sourceY = outputY;
+			cycle.sourceOffset = outputCount;
+
+			for (int i = 0; i < cycleSize; ++i) {
+				int next = i + 1 < cycleSize ? i + 1 : 0;
+				boolean isCorner = i == 0 || cycleX[next] - cycleX[i] != cycleX[i] - cycleX[i - 1]
+						|| cycleY[next] - cycleY[i] != cycleY[i] - cycleY[i - 1];
+
+				if (!isCornerOutput || isCorner) {
+					outputX[outputCount] = cycleX[i] - 1;
+					outputY[outputCount] = cycleY[i] - 1;
+					++outputCount;
+				}
+			}
+			// add the last point to close contour
+			outputX[outputCount] = cycleX[0] - 1;
+			outputY[outputCount] = cycleY[0] - 1;
+			++outputCount;
+
+			cycle.size = outputCount - cycle.sourceOffset;
+		}
+	}
+
+	/** Traces the vertex rows top to bottom - 1. A step belongs to the band of the vertex it starts at,
+	 * pieces enter the band at the top from above or at the bottom from below
+	 */
+	private class Band extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private int index;
+		private int top;
+		private int bottom;
+
+		private int vertexX[];
+		private int vertexY[];
+		private int vertexCount;
+
+		// piece i has the vertices pieceOffsets[i] to pieceOffsets[i + 1] - 1, the keys of closed pieces are -1
+		private int pieceOffsets[];
+		private long entryKeys[];
+		private long exitKeys[];
+		private int pieceCount;
+
+		// the pieces that are contours on their own, they start at their top left vertex
+		private Vector<Cycle> closedCycles;
+
+		private Band(final int index, final int top, final int bottom) {
+			this.index = index;
+			this.top = top;
+			this.bottom = bottom;
+		}
+
+		@Override
+		protected void compute() {
+			this.vertexX = new int[256];
+			this.vertexY = new int[256];
+			this.pieceOffsets = new int[16];
+			this.entryKeys = new long[16];
+			this.exitKeys = new long[16];
+			this.closedCycles = new Vector<Cycle>();
+
+			// steps down into the top row and up into the bottom row come from the neighbouring bands
+			traceEntries(top - 1, top, 3);
+			traceEntries(bottom - 1, bottom - 1, 1);
+
+			// all remaining edges belong to contours inside of the band, found at their top left edge
+			int lastRow = Math.min(bottom, paddedBitmap.getHeight());
+			for (int y = top; y < lastRow; ++y) {
+				for (int x = paddedBitmap.nextEdge(0, y, visitedEdges); x >= 0; x = paddedBitmap.nextEdge(x + 1, y, visitedEdges)) {
+					Cycle cycle = new Cycle();
+					cycle.startKey = y * keyStride + x;
+					cycle.startPiece = pieceCount;
+					cycle.startVertex = vertexCount;
+					cycle.isHole = !paddedBitmap.get(x, y);
+
+					// the top left vertex is entered from the right on outer contours and from below on holes
+					followPiece(x, y, cycle.isHole ? 1 : 2, false);
+					cycle.vertexCount = vertexCount - cycle.startVertex;
+					closedCycles.add(cycle);
+				}
+			}
+			pieceOffsets[pieceCount] = vertexCount;
+		}
+
+		/** Follows all pieces entering vertex row y with the given orientation, pixel row pixelY holds their edges
+		 */
+		private void traceEntries(final int pixelY, final int y, final int orientation) {
+			long words[] = paddedBitmap.getWords();
+			int wordsPerRow = paddedBitmap.getWordsPerRow();
+			int rowOffset = pixelY * wordsPerRow;
+
+			for (int wordIndex = 0; wordIndex < wordsPerRow; ++wordIndex) {
+				long pixels = words[rowOffset + wordIndex];
+				long leftPixels = pixels << 1 | (wordIndex > 0 ? words[rowOffset + wordIndex - 1] >>> 63 : 0);
+
+				// going down the foreground is right of the edge, going up it is left of it
+				long entries = orientation == 3 ? pixels & ~leftPixels : ~pixels & leftPixels;
+				while (entries != 0) {
+					int x = (wordIndex << 6) + Long.numberOfTrailingZeros(entries);
+					entries &= entries - 1;
+
+					if (orientation == 1) {
+						markEdge(x, pixelY);
+					}
+					followPiece(x, y, orientation, true);
+				}
+			}
+		}
+
+		/** Follows a piece from vertex (startX, startY) entered with the given orientation, until it leaves the
+		 * band or returns to the start vertex
+		 */
+		private void followPiece(final int startX, final int startY, int orientation, final boolean isEntry) {
+			if (pieceCount + 1 >= pieceOffsets.length) {
+				pieceOffsets = Arrays.copyOf(pieceOffsets, pieceOffsets.length * 2);
+				entryKeys = Arrays.copyOf(entryKeys, entryKeys.length * 2);
+				exitKeys = Arrays.copyOf(exitKeys, exitKeys.length * 2);
+			}
+			pieceOffsets[pieceCount] = vertexCount;
+			entryKeys[pieceCount] = isEntry ? getKey(startX, startY, orientation) : -1;
+			exitKeys[pieceCount] = -1;
+
+			int x = startX;
+			int y = startY;
+			do {
+				orientation = Potracer.RIGHT_TURN_TABLE[(paddedBitmap.getNeighbourhood(x, y) << 2) | orientation];
+				addVertex(x, y);
+
+				// vertical edges are marked in the row of their upper end, if it lies in this band
+				if ((orientation & 1) != 0) {
+					int edgeY = orientation == 1 ? y - 1 : y;
+					if (edgeY >= top) {
+						markEdge(x, edgeY);
+					}
+				}
+
+				x += Potracer.STEP_X[orientation];
+				y += Potracer.STEP_Y[orientation];
+
+				if (y < top || y >= bottom) {
+					exitKeys[pieceCount] = getKey(x, y, orientation);
+					break;
+				}
+			} while (isEntry || x != startX || y != startY);
+
+			++pieceCount;
+		}
+
+		private void addVertex(final int x, final int y) {
+			if (vertexCount == vertexX.length) {
+				vertexX = Arrays.copyOf(vertexX, vertexCount * 2);
+				vertexY = Arrays.copyOf(vertexY, vertexCount * 2);
+			}
+			vertexX[vertexCount] = x;
+			vertexY[vertexCount] = y;
+			++vertexCount;
+		}
+
+		private void markEdge(final int x, final int y) {
+			// the rows of a band are only written by its own task
+			long words[] = visitedEdges.getWords();
+			words[y * visitedEdges.getWordsPerRow() + (x >>> 6)] |= 1L << x;
+		}
+
+		/** Pieces meet at the same vertex with the same orientation when they cross a band border
+		 */
+		private long getKey(final int x, final int y, final int orientation) {
+			return (y * keyStride + x) << 1 | (orientation == 1 ? 1 : 0);
+		}
+	}
+}
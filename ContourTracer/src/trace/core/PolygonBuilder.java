@@ -24,311 +24,706 @@ THE SOFTWARE.
 
 package trace.core;
 
-import java.awt.Point;
+import java.awt.geom.Point2D;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import tracer.main.PolyBuildListener;
 import tracer.utils.Contour;
-import tracer.utils.Vector2D;
+import tracer.utils.MomentTable;
 
 public class PolygonBuilder {
-	private HashMap<Integer, Point[]> sourceVertices;
-	private HashMap<Integer, int[]> straightPathPivots;
+	/** Finds the polygon with the fewest segments and, among those, the smallest penalty (bestpolygon of potrace)
+	 */
+	public final static int MODE_OPTIMAL = 0;
+	/** Follows the longest valid segment from the start vertex around the contour in a single pass, the polygon
+	 * has as few segments as the optimal one but the segment penalties are ignored. The polygon search is linear in
+	 * the contour size, meant for previews and bulk jobs
+	 */
+	public final static int MODE_GREEDY = 1;
 
-	private Vector<PolyBuildListener> polyBuildListeners;
+	private final static int CHUNKS_PER_THREAD = 4;
+
+	private int mode;
+	private boolean isParallel;
 
-	private Vector2D constraintVec1;
-	private Vector2D constraintVec2;
+	private Vector<PolyBuildListener> polyBuildListeners;
 
 	public PolygonBuilder() {
 		this.polyBuildListeners = new Vector<PolyBuildListener>();
+	}
+
+	/** The search data of one contour. Every contour is processed on its own context, so the builder keeps no
+	 * state between the contours and contours can be processed on several threads
+	 */
+	private static class PolygonContext {
+		private int contourID;
+
+		// vertices of the contour in an array data structure for faster look-ups
+		private int xCoordinates[];
+		private int yCoordinates[];
+
+		// prefix sums of the vertex moments for constant time segment fits
+		private MomentTable moments;
+
+		// vertex indices of the optimal polygon and its sub-pixel vertices
+		private int polygon[];
+		private Point2D.Double adjustedVertices[];
+	}
+
+	/** The temporary arrays of the search, one set is used by each thread for all of its contours. The arrays
+	 * only grow, so after the largest contour no more memory is allocated for them
+	 */
+	private static class SearchBuffers {
+		// next corner and first vertex off the straight path of each vertex
+		private int nextCorners[] = new int[0];
+		private int pivots[] = new int[0];
+
+		// dynamic programming tables of the optimal polygon
+		private int longestPaths[] = new int[0];
+		private int clipEnds[] = new int[0];
+		private int clipStarts[] = new int[0];
+		private int furthest[] = new int[0];
+		private int nearest[] = new int[0];
+		private double penalties[] = new double[0];
+		private int previous[] = new int[0];
+
+		// quadratic forms of the polygon segments
+		private double forms[] = new double[0];
+
+		private void ensureCapacity(final int contourSize) {
+			if (contourSize + 1 > pivots.length) {
+				int capacity = java.lang.Math.max(contourSize + 1, pivots.length + (pivots.length >> 1));
+				nextCorners = new int[capacity];
+				pivots = new int[capacity];
+				longestPaths = new int[capacity];
+				clipEnds = new int[capacity];
+				clipStarts = new int[capacity];
+				furthest = new int[capacity];
+				nearest = new int[capacity];
+				penalties = new double[capacity];
+				previous = new int[capacity];
+				forms = new double[capacity * 9];
+			}
+		}
+	}
+
+	/** Processes the contours first to last - 1 of the contexts
+	 */
+	private static class Chunk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private PolygonContext contexts[];
+		private Contour contours;
+		private int mode;
+		private boolean isAdjusting;
+		private int first;
+		private int last;
+
+		private Chunk(final PolygonContext contexts[], final Contour contours, final int mode, final boolean isAdjusting,
+				final int first, final int last) {
+			this.contexts = contexts;
+			this.contours = contours;
+			this.mode = mode;
+			this.isAdjusting = isAdjusting;
+			this.first = first;
+			this.last = last;
+		}
+
+		@Override
+		protected void compute() {
+			SearchBuffers buffers = new SearchBuffers();
+			for (int i = first; i < last; ++i) {
+				processContour(contexts[i], contours, mode, isAdjusting, buffers);
+			}
+		}
+	}
+
+	public int getMode() {
+		return mode;
+	}
 
-		constraintVec1 = new Vector2D();
-		constraintVec2 = new Vector2D();
+	/** Selects how the polygon of a contour is chosen, either MODE_OPTIMAL or MODE_GREEDY
+	 */
+	public void setMode(final int mode) {
+		if (mode < MODE_OPTIMAL || mode > MODE_GREEDY)
+			throw new IllegalArgumentException("unknown polygon mode " + mode);
 
-		//copy vertices of contours into array data structure for faster look-ups
-		sourceVertices = new HashMap<Integer, Point[]>();
-		
-		//create pivots array to store maximum straight paths
-		straightPathPivots = new HashMap<Integer, int[]>();
+		this.mode = mode;
 	}
 
-	private void reset() {
-		sourceVertices.clear();
-		straightPathPivots.clear();
+	public boolean isParallel() {
+		return isParallel;
+	}
 
-		constraintVec1.x = 0;
-		constraintVec1.y = 0;
-		
-		constraintVec2.x = 0;
-		constraintVec2.y = 0;
+	/** Finds the polygons of the contours in parallel on the common ForkJoinPool, the result is the same as
+	 * in the serial search
+	 */
+	public void setParallel(final boolean isParallel) {
+		this.isParallel = isParallel;
 	}
 
 	public Contour getPolygons(Contour contours) {
-		// reset all data before searching
-		reset();
-
-		// copy contour point into array data structure for faster lookup during search
-		Iterator<Integer> contourIt = contours.getContourIterator();
-		Iterator<Point> contourPointIt;
-		while (contourIt.hasNext()) {
-			int contourID = contourIt.next();
-			contourPointIt = contours.getPointIterator(contourID);
-			Point contourVertices[] = new Point[contours.getContourSize(contourID)];
-
-			for (int i = 0; i < contourVertices.length; ++i) {
-				contourVertices[i] = contourPointIt.next();
+		return getPolygons(contours, null);
+	}
+
+	/** Finds the polygons of the contours, see setMode(). If adjustedPolygons is not null, the sub-pixel vertices of
+	 * each polygon are put into it by contour ID, see adjustVertices(). They are not closed by a repeated vertex
+	 * The polygons are added in the order of the contour IDs, contours without points get no polygon
+	 */
+	public Contour getPolygons(Contour contours, final HashMap<Integer, Point2D.Double[]> adjustedPolygons) {
+		PolygonContext contexts[] = new PolygonContext[contours.getSize()];
+		for (int i = 0; i < contexts.length; ++i) {
+			contexts[i] = new PolygonContext();
+			contexts[i].contourID = contours.getContourID(i);
+		}
+
+		// search straight paths, valid polygon segments and the optimal polygon for each contour
+		boolean isAdjusting = adjustedPolygons != null;
+		if (isParallel && contexts.length > 1) {
+			int chunkCount = java.lang.Math.min(contexts.length, ForkJoinPool.getCommonPoolParallelism() * CHUNKS_PER_THREAD);
+			Chunk chunks[] = new Chunk[chunkCount];
+			for (int i = 0; i < chunkCount; ++i) {
+				chunks[i] = new Chunk(contexts, contours, mode, isAdjusting, (int) ((long) contexts.length * i / chunkCount),
+						(int) ((long) contexts.length * (i + 1) / chunkCount));
+			}
+			ContourPacker.invokeParallel(chunks);
+		} else {
+			SearchBuffers buffers = new SearchBuffers();
+			for (int i = 0; i < contexts.length; ++i) {
+				processContour(contexts[i], contours, mode, isAdjusting, buffers);
 			}
-			
-			// add pivots array to store maximum straight paths for each contour
-			int pivots[] = new int[contourVertices.length];
+		}
 
-			sourceVertices.put(contourID, contourVertices);
+		java.util.Arrays.sort(contexts, new Comparator<PolygonContext>() {
+			public int compare(final PolygonContext context1, final PolygonContext context2) {
+				return Integer.compare(context1.contourID, context2.contourID);
+			}
+		});
 
-			straightPathPivots.put(contourID, pivots);
+		Contour optimalPolygons = new Contour();
+		for (int i = 0; i < contexts.length; ++i) {
+			PolygonContext context = contexts[i];
+			int polygon[] = context.polygon;
+			if (polygon.length == 0) {
+				continue;
+			}
 
-			searchStraightPaths(contourID);
+			for (int j = 0; j < polygon.length; ++j) {
+				optimalPolygons.addPoint(context.contourID, context.xCoordinates[polygon[j]], context.yCoordinates[polygon[j]]);
+			}
+
+			// close the polygon like the contours
+			optimalPolygons.addPoint(context.contourID, context.xCoordinates[polygon[0]], context.yCoordinates[polygon[0]]);
+
+			if (isAdjusting) {
+				adjustedPolygons.put(context.contourID, context.adjustedVertices);
+			}
 		}
-		
-		// search straight paths, valid polygon segments and the optimal polygon for each contour 		
-		return findOptimalPolygon();
+
+		return optimalPolygons;
 	}
 
-	private void searchStraightPaths(int contourID) {
-		Point contourVertices[] = sourceVertices.get(contourID);
-		Point examinedVertex = null;
-		Point previousVertex = null;
-		boolean directionsChanged[] = new boolean[4];;
-
-		// go through all source vertices and find their maximum straight paths
-		for (int currVertexIndex = 0; currVertexIndex < contourVertices.length; ++currVertexIndex) {
-			boolean isStraightPathFinished = false;
-
-			// reset constraints
-			constraintVec1.x = 0;
-			constraintVec1.y = 0;
-			constraintVec2.x = 0;
-			constraintVec2.y = 0;
-
-			// reset directions
-			directionsChanged[0] = false;
-			directionsChanged[1] = false;
-			directionsChanged[2] = false;
-			directionsChanged[3] = false;
-
-			// with each step increase the examined index and check if there is
-			// still a valid straight path
-			int examinedIndex = (currVertexIndex + 1) % (contourVertices.length);
-
-			while (!isStraightPathFinished) {
-				// get a reference to the examined vertex to check for direction
-				// changes
-				examinedVertex = contourVertices[examinedIndex];
-				if (examinedIndex == 0) {
-					previousVertex = contourVertices[contourVertices.length - 1];
-				} else {
-					previousVertex = contourVertices[examinedIndex - 1];
-				}
+	private static void processContour(final PolygonContext context, final Contour contours, final int mode,
+			final boolean isAdjusting, final SearchBuffers buffers) {
+		copyVertices(context, contours);
+		if (context.xCoordinates.length == 0) {
+			// a cleared contour has no polygon
+			context.polygon = new int[0];
+			context.adjustedVertices = new Point2D.Double[0];
+			return;
+		}
+		buffers.ensureCapacity(context.xCoordinates.length);
 
-				// there is a valid straight path between the examined index and
-				// current index if all vertices are within the 0.5 maxNorm
-				// distance
-				// check against constraint
-				Vector2D direction = new Vector2D();
-
-				direction.x = contourVertices[examinedIndex].x
-						- contourVertices[currVertexIndex].x;
-				direction.y = contourVertices[examinedIndex].y
-						- contourVertices[currVertexIndex].y;
-				
-				if ((Vector2D.cross(constraintVec1, direction) < 0)
-						|| (Vector2D.cross(constraintVec2, direction) > 0)) {
-					// store max path index
-					straightPathPivots.get(contourID)[currVertexIndex] = examinedIndex;
-					isStraightPathFinished = true;
-				}
+		searchStraightPaths(context, buffers);
+		if (mode == MODE_GREEDY) {
+			context.polygon = findGreedyPolygon(context.xCoordinates.length, buffers);
+		} else {
+			context.polygon = findBestPolygon(context.moments, buffers);
+		}
+		if (isAdjusting) {
+			context.adjustedVertices = adjustVertices(context.polygon, context.xCoordinates, context.yCoordinates,
+					context.moments, buffers);
+		}
+	}
 
-				updateConstraint(direction);
-
-				// register direction change
-				// right
-				if (examinedVertex.x > previousVertex.x)
-					directionsChanged[0] = true;
-				// up
-				if (examinedVertex.y < previousVertex.y)
-					directionsChanged[1] = true;
-				// left
-				if (examinedVertex.x < previousVertex.x)
-					directionsChanged[2] = true;
-				// down
-				if (examinedVertex.y > previousVertex.y)
-					directionsChanged[3] = true;
-
-				// If there are no more than three direction changes it is no
-				// longer a straight path
-				// direction changes
-				int directionChanges = 0;
-				for (int i = 0; i < 4; ++i) {
-					if (directionsChanged[i] == true) {
-						++directionChanges;
-					}
-				}
+	/** Copies the contour points into the arrays of the context for faster lookup during the search
+	 */
+	private static void copyVertices(final PolygonContext context, final Contour contours) {
+		int contourID = context.contourID;
+		int cornerCount = contours.getContourSize(contourID);
+
+		// contours may only store their corners, expand straight runs into unit steps. The vertex closing
+		// the contour repeats the first one and is left out, indices are taken modulo the contour size
+		int contourSize = cornerCount > 0 ? 1 : 0;
+		for (int j = 1; j < cornerCount; ++j) {
+			contourSize += java.lang.Math.abs(contours.getX(contourID, j) - contours.getX(contourID, j - 1))
+					+ java.lang.Math.abs(contours.getY(contourID, j) - contours.getY(contourID, j - 1));
+		}
+		if (cornerCount > 1 && contours.getX(contourID, 0) == contours.getX(contourID, cornerCount - 1)
+				&& contours.getY(contourID, 0) == contours.getY(contourID, cornerCount - 1)) {
+			--contourSize;
+		}
 
-				if (directionChanges > 3) {
-					isStraightPathFinished = true;
-					straightPathPivots.get(contourID)[currVertexIndex] = examinedIndex;
+		int xCoordinates[] = new int[contourSize];
+		int yCoordinates[] = new int[contourSize];
+
+		int vertexIndex = 0;
+		for (int j = 0; j < cornerCount; ++j) {
+			int x = contours.getX(contourID, j);
+			int y = contours.getY(contourID, j);
+
+			if (j > 0) {
+				// fill in the vertices between the previous corner and this one
+				int previousX = xCoordinates[vertexIndex - 1];
+				int previousY = yCoordinates[vertexIndex - 1];
+				int stepX = Integer.signum(x - previousX);
+				int stepY = Integer.signum(y - previousY);
+
+				for (int k = java.lang.Math.abs(x - previousX) + java.lang.Math.abs(y - previousY); k > 1; --k) {
+					previousX += stepX;
+					previousY += stepY;
+					xCoordinates[vertexIndex] = previousX;
+					yCoordinates[vertexIndex] = previousY;
+					++vertexIndex;
 				}
+			}
 
-				examinedIndex = (examinedIndex + 1) % (contourVertices.length);
+			if (vertexIndex < contourSize) {
+				xCoordinates[vertexIndex] = x;
+				yCoordinates[vertexIndex] = y;
+				++vertexIndex;
 			}
 		}
+
+		context.xCoordinates = xCoordinates;
+		context.yCoordinates = yCoordinates;
+		context.moments = new MomentTable(xCoordinates, yCoordinates);
 	}
 
-	private void updateConstraint(Vector2D direction) {
-		// constraint 1
-		Vector2D constraintTmp1 = new Vector2D();
-		Vector2D constraintTmp2 = new Vector2D();
+	/** Finds the polygons of the given contour IDs again and replaces them in polygons, the polygons of
+	 * IDs without a contour are removed. The other polygons are kept
+	 */
+	public void updatePolygons(final Contour polygons, final Contour contours, final int contourIDs[]) {
+		updatePolygons(polygons, null, contours, contourIDs);
+	}
 
-		if (!(java.lang.Math.abs(direction.x) <= 1 && java.lang.Math.abs(direction.y) <= 1)) {
-			if (direction.y >= 0 && (direction.y > 0 || direction.x < 0)) {
-				constraintTmp1.x = direction.x + 1;
-			} else {
-				constraintTmp1.x = direction.x - 1;
-			}
+	/** Like updatePolygons(), the adjusted vertices of the given contour IDs are replaced as well
+	 */
+	public void updatePolygons(final Contour polygons, final HashMap<Integer, Point2D.Double[]> adjustedPolygons,
+			final Contour contours, final int contourIDs[]) {
+		polygons.remove(contourIDs);
 
-			if (direction.x <= 0 && (direction.x < 0 || direction.y < 0)) {
-				constraintTmp1.y = direction.y + 1;
-			} else {
-				constraintTmp1.y = direction.y - 1;
+		Contour changedContours = new Contour();
+		for (int i = 0; i < contourIDs.length; ++i) {
+			if (adjustedPolygons != null) {
+				adjustedPolygons.remove(contourIDs[i]);
 			}
-
-			if (Vector2D.cross(constraintVec1, constraintTmp1) >= 0) {
-				constraintVec1 = constraintTmp1;
+			if (contours.hasContour(contourIDs[i])) {
+				changedContours.addContour(contourIDs[i], contours, contourIDs[i]);
 			}
+		}
 
-			if (direction.y <= 0 && (direction.y < 0 || direction.x < 0)) {
-				constraintTmp2.x = direction.x + 1;
-			} else {
-				constraintTmp2.x = direction.x - 1;
+		Contour changedPolygons = getPolygons(changedContours, adjustedPolygons);
+		for (int i = 0; i < changedPolygons.getSize(); ++i) {
+			int contourID = changedPolygons.getContourID(i);
+			polygons.addContour(contourID, changedPolygons, contourID);
+		}
+	}
+
+	/** Finds the maximum straight path of each vertex as described in the potrace paper, pivots[i] is the first
+	 * vertex that can not be reached from vertex i on a straight path. Instead of stepping through every vertex the
+	 * search jumps from corner to corner, the last straight vertex on the run between two corners follows from
+	 * the constraints directly. No objects are allocated per step
+	 * Like calc_lon in potrace the constraints start over at every vertex, they are relative to the start vertex
+	 * and can not be taken over from a neighbour. The search costs O(n * c) for n vertices and c corners on a
+	 * straight path, instead of O(n * l) for paths of l vertices, so it is linear only if the paths have a bounded
+	 * number of corners
+	 */
+	private static void searchStraightPaths(final PolygonContext context, final SearchBuffers buffers) {
+		int xCoordinates[] = context.xCoordinates;
+		int yCoordinates[] = context.yCoordinates;
+		int pivots[] = buffers.pivots;
+		int contourSize = xCoordinates.length;
+
+		// the next corner of a vertex is the furthest later vertex on the same horizontal or vertical line
+		int nextCorners[] = buffers.nextCorners;
+		int corner = 0;
+		for (int i = contourSize - 1; i >= 0; --i) {
+			if (xCoordinates[i] != xCoordinates[corner] && yCoordinates[i] != yCoordinates[corner]) {
+				corner = i + 1;
 			}
+			nextCorners[i] = corner;
+		}
+
+		for (int currVertexIndex = 0; currVertexIndex < contourSize; ++currVertexIndex) {
+			int nextIndex = (currVertexIndex + 1) % contourSize;
+
+			// one bit for each direction of the steps so far, a straight path never takes all four
+			int directions = getDirectionBit(xCoordinates[nextIndex] - xCoordinates[currVertexIndex],
+					yCoordinates[nextIndex] - yCoordinates[currVertexIndex]);
+
+			// the two constraint vectors bound the directions of the line through the path
+			int constraint1X = 0;
+			int constraint1Y = 0;
+			int constraint2X = 0;
+			int constraint2Y = 0;
+
+			int lastIndex = -1;
+			int previousCorner = currVertexIndex;
+			int examinedIndex = nextCorners[currVertexIndex];
+
+			while (true) {
+				directions |= getDirectionBit(xCoordinates[examinedIndex] - xCoordinates[previousCorner],
+						yCoordinates[examinedIndex] - yCoordinates[previousCorner]);
+				if (directions == 15) {
+					// the run to the examined corner adds the fourth direction, the path ends at the previous one
+					lastIndex = previousCorner;
+					break;
+				}
+
+				int directionX = xCoordinates[examinedIndex] - xCoordinates[currVertexIndex];
+				int directionY = yCoordinates[examinedIndex] - yCoordinates[currVertexIndex];
+				if (cross(constraint1X, constraint1Y, directionX, directionY) < 0
+						|| cross(constraint2X, constraint2Y, directionX, directionY) > 0) {
+					break;
+				}
+
+				// update the constraints, the neighbours of the start vertex do not restrict the line
+				if (java.lang.Math.abs(directionX) > 1 || java.lang.Math.abs(directionY) > 1) {
+					int offsetX = directionX + (directionY >= 0 && (directionY > 0 || directionX < 0) ? 1 : -1);
+					int offsetY = directionY + (directionX <= 0 && (directionX < 0 || directionY < 0) ? 1 : -1);
+					if (cross(constraint1X, constraint1Y, offsetX, offsetY) >= 0) {
+						constraint1X = offsetX;
+						constraint1Y = offsetY;
+					}
+
+					offsetX = directionX + (directionY <= 0 && (directionY < 0 || directionX < 0) ? 1 : -1);
+					offsetY = directionY + (directionX >= 0 && (directionX > 0 || directionY < 0) ? 1 : -1);
+					if (cross(constraint2X, constraint2Y, offsetX, offsetY) <= 0) {
+						constraint2X = offsetX;
+						constraint2Y = offsetY;
+					}
+				}
 
-			if (direction.x >= 0 && (direction.x > 0 || direction.y < 0)) {
-				constraintTmp2.y = direction.y + 1;
-			} else {
-				constraintTmp2.y = direction.y - 1;
+				previousCorner = examinedIndex;
+				examinedIndex = nextCorners[previousCorner];
+				if (!isCyclicBetween(examinedIndex, currVertexIndex, previousCorner)) {
+					// the run passes the start vertex again
+					break;
+				}
 			}
 
-			if (Vector2D.cross(constraintVec2, constraintTmp2) <= 0) {
-				constraintVec2 = constraintTmp2;
+			if (lastIndex < 0) {
+				// the constraints hold up to the previous corner, find the last vertex on the run to the examined
+				// corner that still satisfies them. The cross products are linear in the number of steps j
+				int stepX = Integer.signum(xCoordinates[examinedIndex] - xCoordinates[previousCorner]);
+				int stepY = Integer.signum(yCoordinates[examinedIndex] - yCoordinates[previousCorner]);
+				int directionX = xCoordinates[previousCorner] - xCoordinates[currVertexIndex];
+				int directionY = yCoordinates[previousCorner] - yCoordinates[currVertexIndex];
+
+				int a = cross(constraint1X, constraint1Y, directionX, directionY);
+				int b = cross(constraint1X, constraint1Y, stepX, stepY);
+				int c = cross(constraint2X, constraint2Y, directionX, directionY);
+				int d = cross(constraint2X, constraint2Y, stepX, stepY);
+
+				// largest j with a + j * b >= 0 and c + j * d <= 0
+				int steps = contourSize;
+				if (b < 0) {
+					steps = floorDivide(a, -b);
+				}
+				if (d > 0) {
+					steps = java.lang.Math.min(steps, floorDivide(-c, d));
+				}
+				lastIndex = (previousCorner + steps) % contourSize;
 			}
+
+			pivots[currVertexIndex] = (lastIndex + 1) % contourSize;
 		}
 	}
 
-	private Contour findOptimalPolygon() {		
-		Contour optimalPolygons = new Contour();
+	/** Returns one of four bits for a step to the right, left, up or down, longer steps are reduced to their sign
+	 */
+	private static int getDirectionBit(final int stepX, final int stepY) {
+		return 1 << ((3 + 3 * Integer.signum(stepX) + Integer.signum(stepY)) / 2);
+	}
 
-		Iterator<Integer> contourIt = sourceVertices.keySet().iterator();
-		while(contourIt.hasNext()) {
-			int contourID = contourIt.next();
+	private static int cross(final int x1, final int y1, final int x2, final int y2) {
+		return x1 * y2 - y1 * x2;
+	}
 
-			LinkedList<Integer> currentPolygon = new LinkedList<Integer>();
-			Point contourVertices[] = sourceVertices.get(contourID);
-			int pivots[] = straightPathPivots.get(contourID);
+	private static int floorDivide(final int dividend, final int divisor) {
+		return dividend >= 0 ? dividend / divisor : -1 - (-1 - dividend) / divisor;
+	}
 
-			for (int polygonStartIndex = 0; polygonStartIndex < contourVertices.length-1; ++polygonStartIndex) {
-				currentPolygon.clear();
+	/** Returns true if b lies in the cyclic interval from a (inclusive) to c (exclusive)
+	 */
+	private static boolean isCyclicBetween(final int a, final int b, final int c) {
+		if (a <= c) {
+			return a <= b && b < c;
+		} else {
+			return a <= b || b < c;
+		}
+	}
 
-				boolean isPolygonClosed = false;
-				int segmentStartIndex = polygonStartIndex;
-				int segmentEndIndex = (segmentStartIndex + 1) % (contourVertices.length-1);
+	/** Returns the vertex indices of the polygon with the fewest segments and, among those, the smallest
+	 * penalty, like bestpolygon in potrace. The polygon starts at vertex 0. Dynamic programming runs over the
+	 * vertices once per segment count, for each vertex only the valid segment starts are tried. The penalties
+	 * come from the moment table of the contour, the pivots from searchStraightPaths()
+	 */
+	private static int[] findBestPolygon(final MomentTable moments, final SearchBuffers buffers) {
+		int contourSize = moments.getVertexCount();
+		findSegmentEnds(contourSize, buffers);
+
+		// the nearest segment start for each end
+		int clipEnds[] = buffers.clipEnds;
+		int clipStarts[] = buffers.clipStarts;
+		clipStarts[0] = 0;
+		for (int i = 0, end = 1; i < contourSize; ++i) {
+			while (end <= clipEnds[i]) {
+				clipStarts[end++] = i;
+			}
+		}
 
-				// add first index
-				currentPolygon.add(segmentStartIndex);
+		// the furthest vertex reached with j segments from the start, and the nearest vertex that still
+		// reaches the end with the remaining segments, this bounds the vertices of segment j
+		int furthest[] = buffers.furthest;
+		int segmentCount = 0;
+		for (int i = 0; i < contourSize; i = clipEnds[i]) {
+			furthest[segmentCount++] = i;
+		}
+		furthest[segmentCount] = contourSize;
 
-				while (!isPolygonClosed) {
-					boolean isValidSegment = true;
-					// find the largest possible segment, beginning at the segment
-					// start index
-					// the end gets increased until the segment is no longer valid
-					while (isValidSegment) {
-						// calculate the cyclic difference of the examined index and
-						// the current index
-						int cyclicDifference = getCyclicDifference(contourID, segmentStartIndex, segmentEndIndex);
+		int nearest[] = buffers.nearest;
+		for (int i = contourSize, j = segmentCount; j > 0; --j) {
+			nearest[j] = i;
+			i = clipStarts[i];
+		}
+		nearest[0] = 0;
+
+		double penalties[] = buffers.penalties;
+		int previous[] = buffers.previous;
+		penalties[0] = 0;
+		for (int j = 1; j <= segmentCount; ++j) {
+			for (int i = nearest[j]; i <= furthest[j]; ++i) {
+				double bestPenalty = -1;
+				for (int k = furthest[j - 1]; k >= clipStarts[i]; --k) {
+					double penalty = penalties[k] + moments.getPenalty(k, i);
+					if (bestPenalty < 0 || penalty < bestPenalty) {
+						previous[i] = k;
+						bestPenalty = penalty;
+					}
+				}
+				penalties[i] = bestPenalty;
+			}
+		}
 
-						int extendedSegmentStart = (segmentStartIndex - 1) % (contourVertices.length-1);
-						if (extendedSegmentStart < 0)
-							extendedSegmentStart += contourVertices.length;
+		int polygon[] = new int[segmentCount];
+		for (int i = contourSize, j = segmentCount - 1; i > 0; --j) {
+			i = previous[i];
+			polygon[j] = i;
+		}
+		return polygon;
+	}
 
-						int extendedSegmentEnd = (segmentEndIndex + 1) % (contourVertices.length-1);
+	/** Returns the vertex indices of the polygon that always takes the longest valid segment, starting at vertex 0
+	 * Every vertex is visited at most once after the segment ends are known
+	 */
+	private static int[] findGreedyPolygon(final int contourSize, final SearchBuffers buffers) {
+		findSegmentEnds(contourSize, buffers);
 
-						int extendedSegmentDifference = getCyclicDifference(contourID, extendedSegmentStart, extendedSegmentEnd);
-						int pivotDifference = getCyclicDifference(contourID, extendedSegmentStart, pivots[extendedSegmentStart] - 1);
+		int clipEnds[] = buffers.clipEnds;
+		int segmentCount = 0;
+		for (int i = 0; i < contourSize; i = clipEnds[i]) {
+			++segmentCount;
+		}
 
-						if (segmentEndIndex == polygonStartIndex) {
-							isPolygonClosed = true;
-							break;
-						}
-						
-						if (pivotDifference == 0) {
-						}
+		int polygon[] = new int[segmentCount];
+		for (int i = 0, j = 0; i < contourSize; i = clipEnds[i]) {
+			polygon[j++] = i;
+		}
+		return polygon;
+	}
 
-						if (cyclicDifference > contourVertices.length - 3) {
-							System.out.println("Segment + " + segmentStartIndex
-									+ " " + segmentEndIndex
-									+ " violates cyclic requirement");
-							isValidSegment = false;
-							break;
-						}
+	/** Sets buffers.clipEnds[i] to the furthest vertex that vertex i reaches with one valid segment, or to the
+	 * contour size if the segment may close the polygon. The pivots come from searchStraightPaths()
+	 */
+	private static void findSegmentEnds(final int contourSize, final SearchBuffers buffers) {
+		int pivots[] = buffers.pivots;
+
+		// longestPaths[i] is the furthest vertex k such that every vertex from i up to k - 1 reaches k on a
+		// straight path, it follows from the pivots of the later vertices
+		int longestPaths[] = buffers.longestPaths;
+		int longest = (pivots[contourSize - 1] + contourSize - 1) % contourSize;
+		longestPaths[contourSize - 1] = longest;
+		for (int i = contourSize - 2; i >= 0; --i) {
+			int lastStraight = (pivots[i] + contourSize - 1) % contourSize;
+			if (isCyclicBetween(i + 1, lastStraight, longest)) {
+				longest = lastStraight;
+			}
+			longestPaths[i] = longest;
+		}
+		for (int i = contourSize - 1; isCyclicBetween((i + 1) % contourSize, longest, longestPaths[contourSize - 1]); --i) {
+			longestPaths[i] = longest;
+		}
 
-						if (extendedSegmentDifference > pivotDifference) {
-							isValidSegment = false;
-							break;
-						}
+		// the furthest segment end from each vertex without wrapping past the end of the contour
+		int clipEnds[] = buffers.clipEnds;
+		for (int i = 0; i < contourSize; ++i) {
+			int end = (longestPaths[(i + contourSize - 1) % contourSize] + contourSize - 1) % contourSize;
+			if (end == i) {
+				end = (i + 1) % contourSize;
+			}
+			clipEnds[i] = end < i ? contourSize : end;
+		}
+	}
 
-						segmentEndIndex = (segmentEndIndex + 1) % (contourVertices.length);
-					}
+	/** Moves the polygon vertices off the pixel corners like adjust_vertices in potrace. A line is fitted to the
+	 * contour vertices of each segment, the new vertex is the point closest to the lines of its two segments
+	 * within the unit square around the old vertex. The squared distance from a line is a quadratic form in
+	 * (x, y, 1), the forms of both lines are added and minimized
+	 */
+	private static Point2D.Double[] adjustVertices(final int polygon[], final int xCoordinates[], final int yCoordinates[],
+			final MomentTable moments, final SearchBuffers buffers) {
+		int contourSize = xCoordinates.length;
+		int vertexCount = polygon.length;
+
+		// the quadratic form of segment i is stored row by row at forms[i * 9]
+		double forms[] = buffers.forms;
+		java.util.Arrays.fill(forms, 0, vertexCount * 9, 0);
+		Point2D.Double center = new Point2D.Double();
+		Point2D.Double direction = new Point2D.Double();
+		double line[] = new double[3];
+
+		// the contour is taken relative to its first vertex, as in the moment table
+		int originX = xCoordinates[0];
+		int originY = yCoordinates[0];
+
+		for (int i = 0; i < vertexCount; ++i) {
+			int start = polygon[i];
+			int end = polygon[(i + 1) % vertexCount];
+			if (end <= start) {
+				end += contourSize;
+			}
+
+			moments.fitLine(start, end, center, direction);
+			if (direction.x == 0 && direction.y == 0) {
+				continue;
+			}
 
-					// add to current polygon
-					currentPolygon.add(segmentEndIndex);
+			// the normal of the line and the offset of the line along it
+			line[0] = direction.y;
+			line[1] = -direction.x;
+			line[2] = -line[1] * (center.y - originY) - line[0] * (center.x - originX);
+			addQuadraticForm(forms, i * 9, line);
+		}
+
+		Point2D.Double vertices[] = new Point2D.Double[vertexCount];
+		double form[] = new double[9];
+		for (int i = 0; i < vertexCount; ++i) {
+			double vertexX = xCoordinates[polygon[i]] - originX;
+			double vertexY = yCoordinates[polygon[i]] - originY;
+
+			// the vertex joins the segment before it and the segment starting at it
+			int previous = (i + vertexCount - 1) % vertexCount;
+			for (int k = 0; k < 9; ++k) {
+				form[k] = forms[previous * 9 + k] + forms[i * 9 + k];
+			}
 
-					segmentStartIndex = segmentEndIndex;
+			double x;
+			double y;
+			while (true) {
+				double determinant = form[0] * form[4] - form[1] * form[3];
+				if (determinant != 0) {
+					x = (-form[2] * form[4] + form[5] * form[1]) / determinant;
+					y = (form[2] * form[3] - form[5] * form[0]) / determinant;
+					break;
 				}
 
-				if (optimalPolygons.getContourSize(contourID) == 0 || optimalPolygons.getContourSize(contourID) > currentPolygon.size()) {
-					System.out.println("Found new optimal polygon with " + currentPolygon.size() + " points");
-					// optimalPolygon = currentPolygon;
-					// polygonVertices.addContour(contourID, currentPolygon);
+				// the lines are parallel, add a line through the old vertex orthogonal to them
+				if (form[0] > form[4]) {
+					line[0] = -form[1];
+					line[1] = form[0];
+				} else if (form[4] != 0) {
+					line[0] = -form[4];
+					line[1] = form[3];
+				} else {
+					line[0] = 1;
+					line[1] = 0;
+				}
+				double length = line[0] * line[0] + line[1] * line[1];
+				line[0] /= java.lang.Math.sqrt(length);
+				line[1] /= java.lang.Math.sqrt(length);
+				line[2] = -line[1] * vertexY - line[0] * vertexX;
+				addQuadraticForm(form, 0, line);
+			}
 
-					// clear old poly vertices
-					optimalPolygons.clear(contourID);
+			if (java.lang.Math.abs(x - vertexX) > 0.5 || java.lang.Math.abs(y - vertexY) > 0.5) {
+				// the minimum lies outside of the unit square, search its borders and corners instead
+				double minimum = getQuadraticForm(form, vertexX, vertexY);
+				double minimumX = vertexX;
+				double minimumY = vertexY;
+
+				for (int k = 0; k < 2; ++k) {
+					if (form[0] != 0) {
+						double borderY = vertexY - 0.5 + k;
+						double borderX = -(form[1] * borderY + form[2]) / form[0];
+						double value = getQuadraticForm(form, borderX, borderY);
+						if (java.lang.Math.abs(borderX - vertexX) <= 0.5 && value < minimum) {
+							minimum = value;
+							minimumX = borderX;
+							minimumY = borderY;
+						}
+					}
+					if (form[4] != 0) {
+						double borderX = vertexX - 0.5 + k;
+						double borderY = -(form[3] * borderX + form[5]) / form[4];
+						double value = getQuadraticForm(form, borderX, borderY);
+						if (java.lang.Math.abs(borderY - vertexY) <= 0.5 && value < minimum) {
+							minimum = value;
+							minimumX = borderX;
+							minimumY = borderY;
+						}
+					}
+				}
 
-					Iterator<Integer> polyIndexIt = currentPolygon.iterator();
-					while (polyIndexIt.hasNext()) {
-						optimalPolygons.addPoint(contourID, contourVertices[polyIndexIt.next()]);
+				for (int k = 0; k < 4; ++k) {
+					double cornerX = vertexX - 0.5 + (k & 1);
+					double cornerY = vertexY - 0.5 + (k >> 1);
+					double value = getQuadraticForm(form, cornerX, cornerY);
+					if (value < minimum) {
+						minimum = value;
+						minimumX = cornerX;
+						minimumY = cornerY;
 					}
 				}
+
+				x = minimumX;
+				y = minimumY;
 			}
-		}
 
-		return optimalPolygons;
+			vertices[i] = new Point2D.Double(x + originX, y + originY);
+		}
+		return vertices;
 	}
 
-	private int getCyclicDifference(int contourID, int startIndex, int endIndex) {
-		Point contourVertices[] = sourceVertices.get(contourID);
-		
-		// calculate the cyclic difference of the examined index and the current
-		// index
-		int cyclicDifference;
-		if (startIndex <= endIndex) {
-			cyclicDifference = endIndex - startIndex;
-		} else {
-			cyclicDifference = endIndex - startIndex + contourVertices.length;
+	/** Adds the quadratic form of the squared distance from a line with unit normal (line[0], line[1]) and offset
+	 * line[2] to the 3x3 form at the given offset
+	 */
+	private static void addQuadraticForm(final double form[], final int offset, final double line[]) {
+		for (int row = 0; row < 3; ++row) {
+			for (int column = 0; column < 3; ++column) {
+				form[offset + row * 3 + column] += line[row] * line[column];
+			}
 		}
+	}
 
-		return cyclicDifference;
+	private static double getQuadraticForm(final double form[], final double x, final double y) {
+		return form[0] * x * x + (form[1] + form[3]) * x * y + form[4] * y * y
+				+ (form[2] + form[6]) * x + (form[5] + form[7]) * y + form[8];
 	}
 
 //	private boolean isStraightPath(int contourID, int startIndex, int endIndex) {
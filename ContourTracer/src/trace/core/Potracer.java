@@ -24,68 +24,124 @@ THE SOFTWARE.
 
 package trace.core;
 
-import java.awt.Point;
+import java.awt.Rectangle;
 import java.util.Iterator;
 import java.util.Vector;
 
-import tracer.gui.ImageComponent;
 import tracer.main.TraceListener;
+import tracer.utils.Bitmap;
 import tracer.utils.Contour;
+import tracer.utils.ContourTree;
 
 public class Potracer {
-	private ImageComponent sourceImage;
+	/** Marks traced contours by inverting the image rows inside of them (the original potrace bookkeeping)
+	 * Holes are followed on the inverted rows, so diagonal background pixels inside of a shape join one hole
+	 */
+	public final static int MODE_INVERT = 0;
+	/** Marks traced contours in a separate map of visited vertical pixel edges, the image is never written
+	 * Diagonal foreground pixels always connect and diagonal background pixels never do, holes included. At such
+	 * saddle vertices the contours differ from MODE_INVERT, where the background pixels of a hole join and the
+	 * foreground pixel between them becomes an island of its own. retrace(), MODE_PARALLEL and MODE_COMPONENTS
+	 * rely on this topology
+	 */
+	public final static int MODE_EDGE_MAP = 1;
+	/** Like MODE_EDGE_MAP, but horizontal bands of the image are traced in parallel and the contour pieces
+	 * are stitched at the band borders, the contours are the same as in MODE_EDGE_MAP
+	 */
+	public final static int MODE_PARALLEL = 2;
+	/** Labels the connected components first and traces each one in its bounding box in parallel, the contours
+	 * are the same as in MODE_EDGE_MAP and the component table is kept, see getComponentTable()
+	 */
+	public final static int MODE_COMPONENTS = 3;
+
+	// new orientation indexed by (2x2 neighbourhood << 2 | orientation), see createTurnTable
+	final static int RIGHT_TURN_TABLE[] = createTurnTable(3);
+	final static int LEFT_TURN_TABLE[] = createTurnTable(1);
+	// vertex steps for right, up, left, down
+	final static int STEP_X[] = { 1, 0, -1, 0 };
+	final static int STEP_Y[] = { 0, -1, 0, 1 };
+
+	private int imageWidth;
+	private int imageHeight;
+
 	private Contour outerContour;
 	private Contour innerContour;
 
-	private int adjacentPixelIndices[];
 	private int contourID;
 
-	private int sourcePixels[];
-	private int destinationPixels[];
-
-	private int orientation;
+	private Bitmap sourceBitmap;
+	private Bitmap paddedBitmap;
+	private Bitmap visitedEdges;
+	// one bit per horizontal pixel edge, only used while tracing a region
+	private Bitmap visitedHorizontalEdges;
+
+	private int mode;
+	// false if the contours of the last trace come from MODE_INVERT, see retrace()
+	private boolean isEdgeMapTopology;
+	private Rectangle region;
+	private boolean isCornerOutput;
+	private int turdSize;
+	private ComponentTable componentTable;
+	private ContourTree contourTree;
+	// left, top, right and bottom vertex of each contour ID, kept for retrace()
+	private int contourBounds[];
 
 	private Vector<TraceListener> traceListeners;
 
 	public Potracer() {
-		this.sourceImage = null;
+		this.sourceBitmap = null;
 
 		this.outerContour = new Contour();
 		this.innerContour = new Contour();
 
-		this.adjacentPixelIndices = new int[4];
-
 		traceListeners = new Vector<TraceListener>();
 
-		this.orientation = 0;
+		this.mode = MODE_INVERT;
 	}
 	
-	public void setImage(final ImageComponent sourceImage){
-		this.sourceImage = sourceImage;
-		this.sourcePixels = sourceImage.getPixels();
-		this.destinationPixels = java.util.Arrays.copyOf(sourcePixels, sourcePixels.length);
-		
-		this.outerContour = new Contour();
-		this.innerContour = new Contour();
-		this.contourID = 0;
-		
-		trace();
+	/** Sets the ARGB pixels of a black and white image, the pixels are packed into a bitmap
+	 */
+	public void setImage(final int sourcePixels[], final int width, final int height) {
+		setImage(Bitmap.fromARGB(sourcePixels, width, height));
+	}
+
+	/** Sets the bitmap to trace, the bitmap is not copied until trace() is called
+	 */
+	public void setImage(final Bitmap sourceBitmap) {
+		this.sourceBitmap = sourceBitmap;
+		this.imageWidth = sourceBitmap.getWidth();
+		this.imageHeight = sourceBitmap.getHeight();
+
+		resetRetrace();
 	}
 
 	public void trace() {
-		if(this.sourceImage != null){
-			for (int i = 0; i < destinationPixels.length - 1; ++i) {
-				// first foreground pixel
-				if (destinationPixels[i] != 0xffffffff) {
-					Point currentVertex = new Point(i % sourceImage.getImageWidth(), i / sourceImage.getImageWidth());
-
-					// check if we hit outer or inner contour
-					if (sourcePixels[i] == 0xff000000 && sourcePixels[i - 1] == 0xffffffff) {
-						followContour(currentVertex, false);
-					} else {
-						followContour(currentVertex, true);
-					}
-				}
+		if (this.sourceBitmap != null) {
+			this.outerContour = new Contour();
+			this.innerContour = new Contour();
+			this.contourID = 0;
+			this.componentTable = null;
+			this.contourTree = null;
+			resetRetrace();
+			this.isEdgeMapTopology = region != null || mode != MODE_INVERT;
+
+			if (region != null) {
+				traceRegion();
+			} else if (mode == MODE_EDGE_MAP) {
+				traceEdgeMap();
+			} else if (mode == MODE_PARALLEL) {
+				ParallelTracer parallelTracer = new ParallelTracer(sourceBitmap.copyWithBorder(1), isCornerOutput, turdSize);
+				this.contourID = parallelTracer.trace();
+				this.outerContour = parallelTracer.getOuterContour();
+				this.innerContour = parallelTracer.getInnerContour();
+			} else if (mode == MODE_COMPONENTS) {
+				this.componentTable = new ComponentLabeler().label(sourceBitmap);
+				ComponentTracer componentTracer = new ComponentTracer(componentTable, imageWidth, isCornerOutput, turdSize);
+				this.contourID = componentTracer.trace();
+				this.outerContour = componentTracer.getOuterContour();
+				this.innerContour = componentTracer.getInnerContour();
+			} else {
+				traceInverted();
 			}
 
 			// inform listeners
@@ -96,140 +152,599 @@ public class Potracer {
 		}
 	}
 
-	private void followContour(final Point startVertex, boolean isInnerContour) {
-		// store first vertex (used to determine if the end of the contour has
-		// been reached)
-		Point firstVertex = new Point(startVertex);
-		Point currentVertex = new Point(startVertex.x, startVertex.y);
+	/** Traces the pixels from (left, top) to (right - 1, bottom - 1) of the image again after they have been
+	 * changed in the bitmap passed to setImage(), the other contours of the last trace are kept. Contours whose
+	 * bounding box touches the rectangle are replaced by the contours now found in their place, removed IDs
+	 * are reused for new contours. Returns the sorted IDs of all removed, replaced or added contours
+	 * The contours are followed like in MODE_EDGE_MAP whatever the mode is, the component table is dropped
+	 * After a trace in MODE_INVERT the first retrace traces the whole image again like in MODE_EDGE_MAP, since
+	 * the kept contours would connect diagonal pixels differently than the retraced ones
+	 */
+	public int[] retrace(int left, int top, int right, int bottom) {
+		left = java.lang.Math.max(left, 0);
+		top = java.lang.Math.max(top, 0);
+		right = java.lang.Math.min(right, imageWidth);
+		bottom = java.lang.Math.min(bottom, imageHeight);
+		if (sourceBitmap == null || left >= right || top >= bottom) {
+			return new int[0];
+		}
 
-		boolean isEndReached = false;
-		
-		//walk along contour until we reach the first vertex again
-		while (!isEndReached) {
-			//add the new point
-			if (isInnerContour) {
-				innerContour.addPoint(contourID, new Point(currentVertex.x, currentVertex.y));
-			} else {
-				outerContour.addPoint(contourID, new Point(currentVertex.x, currentVertex.y));
+		if (visitedEdges == null && !isEdgeMapTopology) {
+			return retraceImage();
+		} else if (visitedEdges == null) {
+			startRetrace();
+		} else {
+			for (int y = top; y < bottom; ++y) {
+				for (int x = left; x < right; ++x) {
+					paddedBitmap.set(x + 1, y + 1, sourceBitmap.get(x, y));
+				}
 			}
-			
-			// vertex index to pixel index
-			int pixelIndex = currentVertex.y * sourceImage.getImageWidth() + currentVertex.x;
-
-			adjacentPixelIndices[0] = pixelIndex - sourceImage.getImageWidth() - 1;
-			adjacentPixelIndices[1] = pixelIndex - sourceImage.getImageWidth();
-			adjacentPixelIndices[2] = pixelIndex - 1;
-			adjacentPixelIndices[3] = pixelIndex;
-			
-			boolean newVertexFound = false;
-
-			//try each direction
-			while (!newVertexFound) {
-				orientation = (orientation + 3) % 4;
-
-				switch (orientation) {
-				// right
-				case 0:
-					if (isInBounds(adjacentPixelIndices[3]) && isInBounds(adjacentPixelIndices[1])) {
-						if (destinationPixels[adjacentPixelIndices[3]] == 0xffffffff
-								&& destinationPixels[adjacentPixelIndices[1]] == 0xff000000) {
-							newVertexFound = true;
-							++currentVertex.x;
-						}
-					}
-					break;
-				// up
-				case 1:
-					if (isInBounds(adjacentPixelIndices[1]) && isInBounds(adjacentPixelIndices[0])) {
-						if (destinationPixels[adjacentPixelIndices[1]] == 0xffffffff
-								&& destinationPixels[adjacentPixelIndices[0]] == 0xff000000) {
-							newVertexFound = true;
-							--currentVertex.y;
-						}
-					}
-					break;
-				// left
-				case 2:
-					if (isInBounds(adjacentPixelIndices[0]) && isInBounds(adjacentPixelIndices[2])) {
-						if (destinationPixels[adjacentPixelIndices[0]] == 0xffffffff
-								&& destinationPixels[adjacentPixelIndices[2]] == 0xff000000) {
-							newVertexFound = true;
-							--currentVertex.x;
-						}
-					}
-					break;
-				// down
-				case 3:
-					if (isInBounds(adjacentPixelIndices[2]) && isInBounds(adjacentPixelIndices[3])) {
-						if (destinationPixels[adjacentPixelIndices[2]] == 0xffffffff
-								&& destinationPixels[adjacentPixelIndices[3]] == 0xff000000) {
-							newVertexFound = true;
-							++currentVertex.y;
-						}
+		}
+		this.componentTable = null;
+		this.contourTree = null;
+
+		// the changed pixels decide the steps at the vertices from (left, top) to (right, bottom), contours
+		// without such a vertex are still valid. The region to trace again grows by the removed contours
+		int regionLeft = left;
+		int regionTop = top;
+		int regionRight = right;
+		int regionBottom = bottom;
+
+		boolean isChanged[] = new boolean[contourID];
+		int freeIDs[] = new int[contourID];
+		int freeIDCount = 0;
+		int removedIDs[] = new int[contourID];
+		int removedIDCount = 0;
+		for (int id = 0; id < contourID; ++id) {
+			Contour contour = outerContour.hasContour(id) ? outerContour : innerContour;
+			if (!contour.hasContour(id)) {
+				freeIDs[freeIDCount++] = id;
+				continue;
+			}
+
+			int offset = id * 4;
+			if (contourBounds[offset] <= right && contourBounds[offset + 1] <= bottom
+					&& contourBounds[offset + 2] >= left && contourBounds[offset + 3] >= top) {
+				regionLeft = java.lang.Math.min(regionLeft, contourBounds[offset]);
+				regionTop = java.lang.Math.min(regionTop, contourBounds[offset + 1]);
+				regionRight = java.lang.Math.max(regionRight, contourBounds[offset + 2]);
+				regionBottom = java.lang.Math.max(regionBottom, contourBounds[offset + 3]);
+
+				markEdges(contour, id, false);
+				removedIDs[removedIDCount++] = id;
+				isChanged[id] = true;
+				freeIDs[freeIDCount++] = id;
+			}
+		}
+
+		// remove the contours at once, one by one would move the rest of the table for each of them
+		removedIDs = java.util.Arrays.copyOf(removedIDs, removedIDCount);
+		outerContour.remove(removedIDs);
+		innerContour.remove(removedIDs);
+
+		// every edge of the region that belongs to no kept contour starts a new one, the vertical edges
+		// of padded row y lie between the vertex rows y - 1 and y of the image
+		int usedIDCount = 0;
+		Vector<Integer> addedIDs = new Vector<Integer>();
+		Contour speckles = new Contour();
+		for (int y = regionTop + 1; y <= regionBottom; ++y) {
+			for (int x = paddedBitmap.nextEdge(regionLeft + 1, y, visitedEdges); x >= 0 && x <= regionRight + 1;
+					x = paddedBitmap.nextEdge(x + 1, y, visitedEdges)) {
+				int id = usedIDCount < freeIDCount ? freeIDs[usedIDCount] : contourID;
+				// the contour may reach out of the region after merging with a speckle, so the edge is not
+				// always its top left one. The contour is followed from its top left vertex like in trace()
+				int startVertex = paddedBitmap.get(x, y) ? findStartVertex(x, y, 3) : findStartVertex(x, y + 1, 1);
+				int startX = startVertex % paddedBitmap.getWidth();
+				int startY = startVertex / paddedBitmap.getWidth();
+				boolean isInnerContour = !paddedBitmap.get(startX, startY);
+				Contour contour = isInnerContour ? innerContour : outerContour;
+				long area = followContour(id, startX, startY, isInnerContour);
+
+				if (area <= turdSize) {
+					speckles.addContour(speckles.getSize(), contour, id);
+					contour.remove(id);
+				} else {
+					if (usedIDCount < freeIDCount) {
+						++usedIDCount;
+					} else {
+						++contourID;
 					}
-					break;
-				default:
-					break;
+					addedIDs.add(id);
 				}
 			}
-			
-			if (currentVertex.x == firstVertex.x && currentVertex.y == firstVertex.y) {
-				isEndReached = true;
-				// add the last point to close contour
-				if (isInnerContour) {
-					innerContour.addPoint(contourID, new Point(currentVertex.x, currentVertex.y));
+		}
+
+		// dropped speckles stay unmarked, a later retrace may find their edges in a larger contour
+		for (int i = 0; i < speckles.getSize(); ++i) {
+			markEdges(speckles, i, false);
+		}
+
+		// collect the changed IDs in ascending order
+		if (contourID > isChanged.length) {
+			isChanged = java.util.Arrays.copyOf(isChanged, contourID);
+		}
+		ensureBoundsCapacity(contourID);
+		for (Iterator<Integer> idIt = addedIDs.iterator(); idIt.hasNext();) {
+			int id = idIt.next();
+			updateBounds(outerContour.hasContour(id) ? outerContour : innerContour, id);
+			isChanged[id] = true;
+		}
+
+		return finishRetrace(isChanged);
+	}
+
+	/** Replaces the contours of a trace in MODE_INVERT by the contours of the whole image followed like in
+	 * MODE_EDGE_MAP. Both modes connect diagonal pixels differently, so the kept contours of an inverted trace
+	 * would not match the retraced ones. Returns the IDs of all old and new contours
+	 */
+	private int[] retraceImage() {
+		boolean isChanged[] = new boolean[contourID];
+		for (int id = 0; id < contourID; ++id) {
+			isChanged[id] = outerContour.hasContour(id) || innerContour.hasContour(id);
+		}
+
+		this.outerContour = new Contour();
+		this.innerContour = new Contour();
+		this.contourID = 0;
+		this.componentTable = null;
+		this.contourTree = null;
+		traceEdgeMap();
+		this.isEdgeMapTopology = true;
+		startRetrace();
+
+		if (contourID > isChanged.length) {
+			isChanged = java.util.Arrays.copyOf(isChanged, contourID);
+		}
+		for (int id = 0; id < contourID; ++id) {
+			isChanged[id] |= outerContour.hasContour(id) || innerContour.hasContour(id);
+		}
+		return finishRetrace(isChanged);
+	}
+
+	/** Informs the listeners about a retrace and returns the IDs of the changed contours in ascending order
+	 */
+	private int[] finishRetrace(final boolean isChanged[]) {
+		int changedCount = 0;
+		for (int id = 0; id < isChanged.length; ++id) {
+			if (isChanged[id]) {
+				++changedCount;
+			}
+		}
+		int changedIDs[] = new int[changedCount];
+		changedCount = 0;
+		for (int id = 0; id < isChanged.length; ++id) {
+			if (isChanged[id]) {
+				changedIDs[changedCount++] = id;
+			}
+		}
+
+		// inform listeners
+		for (Iterator<TraceListener> listenerIt = traceListeners.iterator(); listenerIt.hasNext();) {
+			TraceListener listener = listenerIt.next();
+			listener.onContourChanged();
+		}
+
+		return changedIDs;
+	}
+
+	/** Builds the state kept between calls of retrace() from the contours of the last trace
+	 */
+	private void startRetrace() {
+		this.paddedBitmap = sourceBitmap.copyWithBorder(1);
+		this.visitedEdges = new Bitmap(imageWidth + 2, imageHeight + 2);
+		this.contourBounds = new int[0];
+
+		ensureBoundsCapacity(contourID);
+		for (int id = 0; id < contourID; ++id) {
+			Contour contour = outerContour.hasContour(id) ? outerContour : innerContour;
+			if (contour.hasContour(id)) {
+				markEdges(contour, id, true);
+				updateBounds(contour, id);
+			}
+		}
+	}
+
+	private void resetRetrace() {
+		this.paddedBitmap = null;
+		this.visitedEdges = null;
+		this.contourBounds = null;
+	}
+
+	/** Sets or clears the bits of the vertical pixel edges of a contour in the edge map
+	 */
+	private void markEdges(final Contour contour, final int contourID, final boolean isVisited) {
+		long visitedWords[] = visitedEdges.getWords();
+		int wordsPerRow = visitedEdges.getWordsPerRow();
+
+		for (int i = 1; i < contour.getContourSize(contourID); ++i) {
+			int x = contour.getX(contourID, i) + 1;
+			if (x != contour.getX(contourID, i - 1) + 1) {
+				continue;
+			}
+
+			// edges are marked in the row of their upper end, like in followContour
+			int startY = java.lang.Math.min(contour.getY(contourID, i - 1), contour.getY(contourID, i)) + 1;
+			int endY = java.lang.Math.max(contour.getY(contourID, i - 1), contour.getY(contourID, i)) + 1;
+			for (int y = startY; y < endY; ++y) {
+				if (isVisited) {
+					visitedWords[y * wordsPerRow + (x >>> 6)] |= 1L << x;
 				} else {
-					outerContour.addPoint(contourID, new Point(currentVertex.x, currentVertex.y));
+					visitedWords[y * wordsPerRow + (x >>> 6)] &= ~(1L << x);
 				}
 			}
 		}
+	}
 
-		// invert pixels inside contour
-		invertPixelInContour(contourID, isInnerContour);
-		++contourID;
+	private void ensureBoundsCapacity(final int contourCount) {
+		if (contourBounds.length < contourCount * 4) {
+			contourBounds = java.util.Arrays.copyOf(contourBounds, java.lang.Math.max(contourCount * 4, contourBounds.length * 2));
+		}
+	}
 
+	private void updateBounds(final Contour contour, final int contourID) {
+		int offset = contourID * 4;
+		contourBounds[offset] = Integer.MAX_VALUE;
+		contourBounds[offset + 1] = Integer.MAX_VALUE;
+		contourBounds[offset + 2] = Integer.MIN_VALUE;
+		contourBounds[offset + 3] = Integer.MIN_VALUE;
+
+		for (int i = 0; i < contour.getContourSize(contourID); ++i) {
+			int x = contour.getX(contourID, i);
+			int y = contour.getY(contourID, i);
+			contourBounds[offset] = java.lang.Math.min(contourBounds[offset], x);
+			contourBounds[offset + 1] = java.lang.Math.min(contourBounds[offset + 1], y);
+			contourBounds[offset + 2] = java.lang.Math.max(contourBounds[offset + 2], x);
+			contourBounds[offset + 3] = java.lang.Math.max(contourBounds[offset + 3], y);
+		}
 	}
 
-	private void invertPixelInContour(int contourID, boolean isInnerContour) {
-		Iterator<Point> pointIt;
+	/** Walks around the contour through vertex (x, y) of the padded image, leaving it in the given orientation,
+	 * without storing it and returns its top left vertex as y * width + x. The walk keeps foreground on its left
+	 * and ends when it leaves the start vertex in the same orientation again, so saddle vertices do not cut it short
+	 */
+	private int findStartVertex(final int x, final int y, final int startOrientation) {
+		int orientation = startOrientation;
+		int vertexX = x;
+		int vertexY = y;
+		int topLeftX = x;
+		int topLeftY = y;
+		do {
+			vertexX += STEP_X[orientation];
+			vertexY += STEP_Y[orientation];
+			orientation = RIGHT_TURN_TABLE[(paddedBitmap.getNeighbourhood(vertexX, vertexY) << 2) | orientation];
+
+			if (vertexY < topLeftY || (vertexY == topLeftY && vertexX < topLeftX)) {
+				topLeftX = vertexX;
+				topLeftY = vertexY;
+			}
+		} while (vertexX != x || vertexY != y || orientation != startOrientation);
 
-		if (isInnerContour) {
-			pointIt = innerContour.getPointIterator(contourID);
-		} else {
-			pointIt = outerContour.getPointIterator(contourID);
+		return topLeftY * paddedBitmap.getWidth() + topLeftX;
+	}
+
+	private void traceInverted() {
+		// start from a fresh padded copy of the source image, so tracing the same image twice yields the same contours
+		this.paddedBitmap = sourceBitmap.copyWithBorder(1);
+
+		for (int y = 1; y <= imageHeight; ++y) {
+			// jump to the next foreground pixel, skipping blank words of the row
+			for (int x = paddedBitmap.nextForeground(0, y); x >= 0; x = paddedBitmap.nextForeground(x + 1, y)) {
+				// check if we hit outer or inner contour
+				if (sourceBitmap.get(x - 1, y - 1) && !sourceBitmap.get(x - 2, y - 1)) {
+					addContour(x, y, false);
+				} else {
+					addContour(x, y, true);
+				}
+			}
 		}
 
-		Point previousPoint = null;
-		Point currentPoint = null;
+		this.paddedBitmap = null;
+	}
 
-		while (pointIt.hasNext()) {
-			previousPoint = currentPoint;
-			currentPoint = pointIt.next();
+	private void traceEdgeMap() {
+		// one bit per vertical pixel edge, edge x of row y lies left of pixel (x, y) of the padded image
+		this.paddedBitmap = sourceBitmap.copyWithBorder(1);
+		this.visitedEdges = new Bitmap(imageWidth + 2, imageHeight + 2);
 
-			if (previousPoint != null) {
-				if (currentPoint.y > previousPoint.y) {
-					int pixelIndex = previousPoint.y * sourceImage.getImageWidth() + previousPoint.x;
+		for (int y = 1; y <= imageHeight; ++y) {
+			// the first unvisited edge of a contour in scan order is its top left edge, it is an outer
+			// contour if the pixel right of it is foreground and a hole otherwise
+			for (int x = paddedBitmap.nextEdge(0, y, visitedEdges); x >= 0; x = paddedBitmap.nextEdge(x + 1, y, visitedEdges)) {
+				addContour(x, y, !paddedBitmap.get(x, y));
+			}
+		}
 
-					invertRow(pixelIndex);
-				} else if (currentPoint.y < previousPoint.y) {
-					int pixelIndex = currentPoint.y * sourceImage.getImageWidth() + currentPoint.x;
+		this.paddedBitmap = null;
+		this.visitedEdges = null;
+	}
+
+	/** Traces the contours with an edge inside of the region or on its border, the scan is limited to the region
+	 * and only the followed contours are read outside of it. Afterwards the IDs are sorted by the raster order of
+	 * the contour starts like in a full trace
+	 */
+	private void traceRegion() {
+		int left = java.lang.Math.max(region.x, 0);
+		int top = java.lang.Math.max(region.y, 0);
+		int right = java.lang.Math.min(region.x + region.width, imageWidth);
+		int bottom = java.lang.Math.min(region.y + region.height, imageHeight);
+		if (left >= right || top >= bottom) {
+			return;
+		}
+
+		this.paddedBitmap = sourceBitmap.copyWithBorder(1);
+		this.visitedEdges = new Bitmap(imageWidth + 2, imageHeight + 2);
+		this.visitedHorizontalEdges = new Bitmap(imageWidth + 2, imageHeight + 2);
+
+		// vertical edges next to the pixels of the region, padded column x lies left of pixel x - 1
+		for (int y = top + 1; y <= bottom; ++y) {
+			for (int x = paddedBitmap.nextEdge(left + 1, y, visitedEdges); x >= 0 && x <= right + 1;
+					x = paddedBitmap.nextEdge(x + 1, y, visitedEdges)) {
+				// walk down the edge if its right pixel is foreground, up otherwise
+				if (paddedBitmap.get(x, y)) {
+					addRegionContour(findStartVertex(x, y, 3));
+				} else {
+					addRegionContour(findStartVertex(x, y + 1, 1));
+				}
+			}
+		}
 
-					invertRow(pixelIndex);
+		// contours crossing the region with horizontal edges only, padded row y lies above pixel row y - 1
+		for (int y = top + 1; y <= bottom + 1; ++y) {
+			for (int x = paddedBitmap.nextHorizontalEdge(left + 1, y, visitedHorizontalEdges); x >= 0 && x <= right;
+					x = paddedBitmap.nextHorizontalEdge(x + 1, y, visitedHorizontalEdges)) {
+				// walk right along the edge if its upper pixel is foreground, left otherwise
+				if (paddedBitmap.get(x, y - 1)) {
+					addRegionContour(findStartVertex(x, y, 0));
+				} else {
+					addRegionContour(findStartVertex(x + 1, y, 2));
 				}
 			}
 		}
+
+		sortContours();
+
+		this.paddedBitmap = null;
+		this.visitedEdges = null;
+		this.visitedHorizontalEdges = null;
 	}
 
-	private void invertRow(int startIndex) {
-		for (int i = startIndex; i % sourceImage.getImageWidth() < sourceImage.getImageWidth() - 1; ++i) {
-			// destinationPixels[i] = (byte)(255-destinationPixels[i]);
+	private void addRegionContour(final int startVertex) {
+		int x = startVertex % paddedBitmap.getWidth();
+		int y = startVertex / paddedBitmap.getWidth();
 
-			if (destinationPixels[i] == 0xff000000) {
-				destinationPixels[i] = 0xffffffff;
+		// the contour may have been followed from another edge already
+		if (!visitedEdges.get(x, y)) {
+			addContour(x, y, !paddedBitmap.get(x, y));
+		}
+	}
+
+	/** Gives the contours new IDs in the raster order of their start vertices
+	 */
+	private void sortContours() {
+		long starts[] = new long[outerContour.getSize() + innerContour.getSize()];
+		int contourCount = 0;
+		for (int i = 0; i < contourID; ++i) {
+			Contour contour = outerContour.hasContour(i) ? outerContour : innerContour;
+			if (contour.hasContour(i)) {
+				long start = (long) contour.getY(i, 0) * (imageWidth + 1) + contour.getX(i, 0);
+				starts[contourCount++] = (start << 32) | i;
+			}
+		}
+		java.util.Arrays.sort(starts, 0, contourCount);
+
+		Contour sortedOuterContour = new Contour();
+		Contour sortedInnerContour = new Contour();
+		for (int i = 0; i < contourCount; ++i) {
+			int id = (int) starts[i];
+			if (outerContour.hasContour(id)) {
+				sortedOuterContour.addContour(i, outerContour, id);
 			} else {
-				destinationPixels[i] = 0xff000000;
+				sortedInnerContour.addContour(i, innerContour, id);
+			}
+		}
+
+		this.outerContour = sortedOuterContour;
+		this.innerContour = sortedInnerContour;
+		this.contourID = contourCount;
+	}
+
+	/** Precomputes the new orientation for each 2x2 neighbourhood of a vertex and each current orientation
+	 * Bit 0 of the neighbourhood is the top left, bit 1 the top right, bit 2 the bottom left and bit 3 the
+	 * bottom right pixel. Starting at the current orientation the directions are tried in steps of turnStep,
+	 * the first one with foreground on its left and background on its right side is taken
+	 */
+	private static int[] createTurnTable(final int turnStep) {
+		int turnTable[] = new int[64];
+
+		for (int neighbourhood = 0; neighbourhood < 16; ++neighbourhood) {
+			boolean topLeft = (neighbourhood & 1) != 0;
+			boolean topRight = (neighbourhood & 2) != 0;
+			boolean bottomLeft = (neighbourhood & 4) != 0;
+			boolean bottomRight = (neighbourhood & 8) != 0;
+
+			// right, up, left, down
+			boolean isValid[] = { !bottomRight && topRight, !topRight && topLeft, !topLeft && bottomLeft,
+					!bottomLeft && bottomRight };
+
+			for (int orientation = 0; orientation < 4; ++orientation) {
+				// blank and full neighbourhoods never lie on a contour
+				int newOrientation = -1;
+				for (int i = 1; i <= 4 && newOrientation < 0; ++i) {
+					int candidate = (orientation + i * turnStep) % 4;
+					if (isValid[candidate]) {
+						newOrientation = candidate;
+					}
+				}
+				turnTable[(neighbourhood << 2) | orientation] = newOrientation;
+			}
+		}
+		return turnTable;
+	}
+
+	private void addContour(final int startX, final int startY, final boolean isInnerContour) {
+		long area = followContour(contourID, startX, startY, isInnerContour);
+
+		// speckles are dropped after they have been marked, so they are not found again
+		if (area <= turdSize) {
+			(isInnerContour ? innerContour : outerContour).remove(contourID);
+		} else {
+			++contourID;
+		}
+	}
+
+	/** Follows the contour through vertex (startX, startY) of the padded image and stores it in image coordinates
+	 * under the given ID, returns the signed area of the contour
+	 */
+	private long followContour(final int contourID, final int startX, final int startY, final boolean isInnerContour) {
+		Contour contour = isInnerContour ? innerContour : outerContour;
+
+		// with an edge map the image is not inverted, holes are followed on the source with the
+		// colors swapped. Turning left first keeps diagonal background pixels apart, so each
+		// pixel edge belongs to exactly one outer contour or hole
+		boolean isColorSwapped = visitedEdges != null && isInnerContour;
+		int turnTable[] = isColorSwapped ? LEFT_TURN_TABLE : RIGHT_TURN_TABLE;
+		int colorMask = isColorSwapped ? 15 : 0;
+
+		long visitedWords[] = visitedEdges != null ? visitedEdges.getWords() : null;
+		long horizontalWords[] = visitedHorizontalEdges != null ? visitedHorizontalEdges.getWords() : null;
+		int wordsPerRow = paddedBitmap.getWordsPerRow();
+
+		int x = startX;
+		int y = startY;
+		// every contour starts down the left edge of its start pixel, the turn order tries that direction
+		// first from here even if the start vertex is a saddle
+		int orientation = isColorSwapped ? 2 : 0;
+		int previousOrientation = -1;
+		// signed area, the vertical steps alone sum up the enclosed pixels, it is positive for the traced region
+		long area = 0;
+
+		//walk along contour until we reach the first vertex again, the border keeps all reads inside the image
+		do {
+			// pixels around the vertex: top left, top right, bottom left, bottom right
+			int neighbourhood = paddedBitmap.getNeighbourhood(x, y);
+			orientation = turnTable[((neighbourhood ^ colorMask) << 2) | orientation];
+
+			//add the left vertex, in corner output only if the direction changes at it
+			if (!isCornerOutput || orientation != previousOrientation) {
+				contour.addPoint(contourID, x - 1, y - 1);
+			}
+			previousOrientation = orientation;
+
+			// vertical edges are marked in the row of their upper end, horizontal ones in the column of their left end
+			if (visitedWords != null && (orientation & 1) != 0) {
+				int edgeY = orientation == 1 ? y - 1 : y;
+				visitedWords[edgeY * wordsPerRow + (x >>> 6)] |= 1L << x;
+			} else if (horizontalWords != null) {
+				int edgeX = orientation == 0 ? x : x - 1;
+				horizontalWords[y * wordsPerRow + (edgeX >>> 6)] |= 1L << edgeX;
 			}
+
+			area -= (long) x * STEP_Y[orientation];
+			x += STEP_X[orientation];
+			y += STEP_Y[orientation];
+		} while (x != startX || y != startY);
+
+		// add the last point to close contour
+		contour.addPoint(contourID, startX - 1, startY - 1);
+
+		// invert pixels inside contour, unless an edge map remembers it
+		if (visitedEdges == null) {
+			invertPixelInContour(contourID, isInnerContour);
 		}
+
+		return area;
+	}
+
+	private void invertPixelInContour(int contourID, boolean isInnerContour) {
+		Contour contour = isInnerContour ? innerContour : outerContour;
+		int contourSize = contour.getContourSize(contourID);
+
+		for (int i = 1; i < contourSize; ++i) {
+			int previousY = contour.getY(contourID, i - 1);
+			int currentY = contour.getY(contourID, i);
+
+			// vertical runs are longer than one pixel if only corners are stored
+			if (currentY > previousY) {
+				for (int y = previousY; y < currentY; ++y) {
+					invertRow(y, contour.getX(contourID, i - 1));
+				}
+			} else if (currentY < previousY) {
+				for (int y = currentY; y < previousY; ++y) {
+					invertRow(y, contour.getX(contourID, i));
+				}
+			}
+		}
+	}
+
+	private void invertRow(int y, int startX) {
+		// word-wide XOR from the contour edge to the right border, the border column is inverted
+		// an even number of times by each contour and stays background
+		paddedBitmap.invertRow(y + 1, startX + 1);
+	}
+
+	public int getMode() {
+		return mode;
+	}
+
+	/** Selects how traced contours are remembered, either MODE_INVERT, MODE_EDGE_MAP, MODE_PARALLEL or MODE_COMPONENTS
+	 * MODE_EDGE_MAP runs in O(pixels + total perimeter) and never rewrites image rows
+	 */
+	public void setMode(final int mode) {
+		if (mode < MODE_INVERT || mode > MODE_COMPONENTS)
+			throw new IllegalArgumentException("unknown trace mode " + mode);
+
+		this.mode = mode;
+	}
+
+	public Rectangle getRegion() {
+		return region == null ? null : new Rectangle(region);
+	}
+
+	/** Limits trace() to the contours that lie in or cross the given rectangle of the image, null traces the whole
+	 * image. The rest of the image is neither scanned nor inverted, the contours are followed like in MODE_EDGE_MAP
+	 */
+	public void setRegion(final Rectangle region) {
+		this.region = region == null ? null : new Rectangle(region);
+	}
+
+	public boolean isCornerOutput() {
+		return isCornerOutput;
+	}
+
+	/** If enabled only the vertices where the contour changes its direction are stored, the
+	 * length of each straight run follows from the coordinates of its two corners
+	 */
+	public void setCornerOutput(final boolean isCornerOutput) {
+		this.isCornerOutput = isCornerOutput;
+	}
+
+	public int getTurdSize() {
+		return turdSize;
+	}
+
+	/** Contours enclosing at most turdSize pixels (holes included) are dropped while tracing, they get no
+	 * contour ID. Like in potrace this removes speckles before the polygon stage, 0 keeps all contours
+	 */
+	public void setTurdSize(final int turdSize) {
+		if (turdSize < 0)
+			throw new IllegalArgumentException("negative turd size " + turdSize);
+
+		this.turdSize = turdSize;
+	}
+
+	/** Returns the components found by the last trace in MODE_COMPONENTS, null in the other modes
+	 */
+	public ComponentTable getComponentTable() {
+		return componentTable;
+	}
+
+	/** Returns the containment tree of the traced contours, it is built on the first call after each trace
+	 */
+	public ContourTree getContourTree() {
+		if (contourTree == null) {
+			contourTree = new ContourTree(outerContour, innerContour);
+		}
+		return contourTree;
 	}
 
 	public Contour getInnerContour() {
@@ -240,6 +755,14 @@ public class Potracer {
 		return this.outerContour;
 	}
 
+	public int getImageWidth() {
+		return imageWidth;
+	}
+
+	public int getImageHeight() {
+		return imageHeight;
+	}
+
 	public void addTraceListener(TraceListener listener) {
 		traceListeners.add(listener);
 	}
@@ -247,12 +770,4 @@ public class Potracer {
 	public void removeTraceListener(TraceListener listener) {
 		traceListeners.remove(listener);
 	}
-	
-	private boolean isInBounds(int pixelIndex) {
-		if (pixelIndex >= 0 && pixelIndex <= destinationPixels.length) {
-			return true;
-		} else {
-			return false;
-		}
-	}
 }
@@ -0,0 +1,152 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2011 Andre Groeschel
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package trace.core;
+
+import java.awt.geom.Point2D;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+
+import tracer.utils.Bitmap;
+import tracer.utils.Contour;
+import tracer.utils.ContourTree;
+
+/** The RasterTracer traces raw binary rasters without touching the Swing user interface
+ * Each instance owns its own contour tracer, polygon builder and curve builder, batch jobs
+ * should use one instance per thread
+ */
+public class RasterTracer {
+	private Potracer contourTracer;
+	private PolygonBuilder polyBuilder;
+	private CurveBuilder curveBuilder;
+
+	// polygons of the last trace, updated by retrace()
+	private Contour outerPolygons;
+	private Contour innerPolygons;
+
+	// sub-pixel vertices of the polygons by contour ID
+	private HashMap<Integer, Point2D.Double[]> outerAdjustedPolygons;
+	private HashMap<Integer, Point2D.Double[]> innerAdjustedPolygons;
+
+	public RasterTracer() {
+		this.contourTracer = new Potracer();
+		this.polyBuilder = new PolygonBuilder();
+		this.curveBuilder = new CurveBuilder();
+	}
+
+	/** Traces a raster with one byte per pixel, every non-zero byte is foreground
+	 */
+	public TraceResult trace(final int width, final int height, final byte pixels[]) {
+		return trace(Bitmap.fromBytes(pixels, width, height));
+	}
+
+	/** Traces a raster with one bit per pixel, every row starts at a new byte and the most
+	 * significant bit is the leftmost pixel (as in PBM files), set bits are foreground
+	 */
+	public TraceResult tracePacked(final int width, final int height, final byte bits[]) {
+		return trace(Bitmap.fromPackedBytes(bits, width, height));
+	}
+
+	public TraceResult trace(final Bitmap sourceBitmap) {
+		contourTracer.setImage(sourceBitmap);
+		contourTracer.trace();
+
+		outerAdjustedPolygons = new HashMap<Integer, Point2D.Double[]>();
+		innerAdjustedPolygons = new HashMap<Integer, Point2D.Double[]>();
+		outerPolygons = polyBuilder.getPolygons(contourTracer.getOuterContour(), outerAdjustedPolygons);
+		innerPolygons = polyBuilder.getPolygons(contourTracer.getInnerContour(), innerAdjustedPolygons);
+
+		ContourTree contourTree = curveBuilder.isCompoundOutput() ? contourTracer.getContourTree() : null;
+		curveBuilder.findCurves(outerPolygons, outerAdjustedPolygons, innerPolygons, innerAdjustedPolygons, contourTree);
+
+		return createResult();
+	}
+
+	/** Traces a bitmap and writes the curves as an SVG file while they are found, see CurveBuilder.writeSVG()
+	 * The curves are not kept, so there is nothing to retrace afterwards. The writer should be buffered
+	 */
+	public void traceSVG(final Bitmap sourceBitmap, final Writer out) throws IOException {
+		contourTracer.setImage(sourceBitmap);
+		contourTracer.trace();
+
+		HashMap<Integer, Point2D.Double[]> outerAdjusted = new HashMap<Integer, Point2D.Double[]>();
+		HashMap<Integer, Point2D.Double[]> innerAdjusted = new HashMap<Integer, Point2D.Double[]>();
+		Contour outer = polyBuilder.getPolygons(contourTracer.getOuterContour(), outerAdjusted);
+		Contour inner = polyBuilder.getPolygons(contourTracer.getInnerContour(), innerAdjusted);
+
+		ContourTree contourTree = curveBuilder.isCompoundOutput() ? contourTracer.getContourTree() : null;
+		curveBuilder.writeSVG(outer, outerAdjusted, inner, innerAdjusted, contourTree, out);
+
+		outerPolygons = null;
+		innerPolygons = null;
+		outerAdjustedPolygons = null;
+		innerAdjustedPolygons = null;
+	}
+
+	/** Traces the pixels from (left, top) to (right - 1, bottom - 1) again after they have been changed in the
+	 * bitmap of the last trace, only the polygons and curves of the changed contours are searched again
+	 * The polygons of the result are updated in place, see Potracer.retrace()
+	 */
+	public TraceResult retrace(final int left, final int top, final int right, final int bottom) {
+		if (outerPolygons == null)
+			throw new IllegalStateException("retrace needs a previous trace");
+
+		int changedIDs[] = contourTracer.retrace(left, top, right, bottom);
+
+		polyBuilder.updatePolygons(outerPolygons, outerAdjustedPolygons, contourTracer.getOuterContour(), changedIDs);
+		polyBuilder.updatePolygons(innerPolygons, innerAdjustedPolygons, contourTracer.getInnerContour(), changedIDs);
+
+		ContourTree contourTree = curveBuilder.isCompoundOutput() ? contourTracer.getContourTree() : null;
+		curveBuilder.updateCurves(outerPolygons, outerAdjustedPolygons, innerPolygons, innerAdjustedPolygons, contourTree,
+				changedIDs);
+
+		return createResult();
+	}
+
+	private TraceResult createResult() {
+		String curves[] = new String[curveBuilder.getCurveCount()];
+		boolean innerCurves[] = new boolean[curves.length];
+		for (int i = 0; i < curves.length; ++i) {
+			curves[i] = curveBuilder.getCurveData(i);
+			innerCurves[i] = curveBuilder.isInnerCurve(i);
+		}
+
+		return new TraceResult(contourTracer.getOuterContour(), contourTracer.getInnerContour(),
+				outerPolygons, innerPolygons, curves, innerCurves);
+	}
+
+	public Potracer getContourTracer() {
+		return contourTracer;
+	}
+
+	public PolygonBuilder getPolygonBuilder() {
+		return polyBuilder;
+	}
+
+	public CurveBuilder getCurveBuilder() {
+		return curveBuilder;
+	}
+}
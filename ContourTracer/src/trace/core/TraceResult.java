@@ -0,0 +1,80 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2011 Andre Groeschel
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package trace.core;
+
+import tracer.utils.Contour;
+
+/** The TraceResult holds the outer and inner contours, polygons and curves of a traced raster
+ * Curves are ordered by contour ID and given as SVG path data
+ */
+public class TraceResult {
+	private Contour outerContour;
+	private Contour innerContour;
+
+	private Contour outerPolygons;
+	private Contour innerPolygons;
+
+	private String curves[];
+	private boolean innerCurves[];
+
+	public TraceResult(final Contour outerContour, final Contour innerContour, final Contour outerPolygons,
+			final Contour innerPolygons, final String curves[], final boolean innerCurves[]) {
+		this.outerContour = outerContour;
+		this.innerContour = innerContour;
+		this.outerPolygons = outerPolygons;
+		this.innerPolygons = innerPolygons;
+		this.curves = curves;
+		this.innerCurves = innerCurves;
+	}
+
+	public Contour getOuterContour() {
+		return outerContour;
+	}
+
+	public Contour getInnerContour() {
+		return innerContour;
+	}
+
+	public Contour getOuterPolygons() {
+		return outerPolygons;
+	}
+
+	public Contour getInnerPolygons() {
+		return innerPolygons;
+	}
+
+	public int getCurveCount() {
+		return curves.length;
+	}
+
+	public String getCurve(final int index) {
+		return curves[index];
+	}
+
+	public boolean isInnerCurve(final int index) {
+		return innerCurves[index];
+	}
+}
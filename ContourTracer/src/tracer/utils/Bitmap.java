@@ -0,0 +1,314 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2011 Andre Groeschel
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package tracer.utils;
+
+/** A binary image with one bit per pixel, each row is packed into 64 bit words
+ * Bit (x % 64) of word (x / 64) holds pixel x of a row, set bits are foreground (black)
+ * Bits beyond the right border are always kept clear, shifts by x rely on Java masking the
+ * shift distance to the lowest 6 bits
+ */
+public class Bitmap {
+	private final static int WHITE = 0xffffffff;
+
+	private int width;
+	private int height;
+	private int wordsPerRow;
+	private long lastWordMask;
+
+	private long words[];
+
+	public Bitmap(final int width, final int height) {
+		if (width < 0 || height < 0)
+			throw new IllegalArgumentException("invalid bitmap size " + width + "x" + height);
+
+		this.width = width;
+		this.height = height;
+		this.wordsPerRow = (width + 63) >>> 6;
+		this.lastWordMask = (width & 63) == 0 ? -1L : (1L << (width & 63)) - 1;
+		this.words = new long[wordsPerRow * height];
+	}
+
+	/** Creates a bitmap from ARGB pixels, every pixel that is not white is foreground
+	 */
+	public static Bitmap fromARGB(final int pixels[], final int width, final int height) {
+		if (pixels == null || pixels.length < width * height)
+			throw new IndexOutOfBoundsException();
+
+		Bitmap bitmap = new Bitmap(width, height);
+		for (int y = 0; y < height; ++y) {
+			for (int x = 0; x < width; ++x) {
+				if (pixels[y * width + x] != WHITE) {
+					bitmap.words[y * bitmap.wordsPerRow + (x >>> 6)] |= 1L << x;
+				}
+			}
+		}
+		return bitmap;
+	}
+
+	/** Creates a bitmap with one byte per pixel, every non-zero byte is foreground
+	 */
+	public static Bitmap fromBytes(final byte pixels[], final int width, final int height) {
+		if (pixels == null || pixels.length < width * height)
+			throw new IndexOutOfBoundsException();
+
+		Bitmap bitmap = new Bitmap(width, height);
+		for (int y = 0; y < height; ++y) {
+			for (int x = 0; x < width; ++x) {
+				if (pixels[y * width + x] != 0) {
+					bitmap.words[y * bitmap.wordsPerRow + (x >>> 6)] |= 1L << x;
+				}
+			}
+		}
+		return bitmap;
+	}
+
+	/** Creates a bitmap with one bit per pixel, every row starts at a new byte and the most
+	 * significant bit is the leftmost pixel (as in PBM files), set bits are foreground
+	 */
+	public static Bitmap fromPackedBytes(final byte bits[], final int width, final int height) {
+		int rowBytes = (width + 7) >>> 3;
+		if (bits == null || bits.length < rowBytes * height)
+			throw new IndexOutOfBoundsException();
+
+		Bitmap bitmap = new Bitmap(width, height);
+		for (int y = 0; y < height; ++y) {
+			int rowOffset = y * bitmap.wordsPerRow;
+			for (int i = 0; i < rowBytes; ++i) {
+				// reverse the byte, so the leftmost pixel becomes the lowest bit
+				long reversed = Integer.reverse(bits[y * rowBytes + i] & 0xff) >>> 24;
+				bitmap.words[rowOffset + (i >>> 3)] |= reversed << ((i & 7) << 3);
+			}
+			bitmap.words[rowOffset + bitmap.wordsPerRow - 1] &= bitmap.lastWordMask;
+		}
+		return bitmap;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getWordsPerRow() {
+		return wordsPerRow;
+	}
+
+	/** Returns a reference to the packed rows, row y starts at word (y * getWordsPerRow())
+	 */
+	public long[] getWords() {
+		return words;
+	}
+
+	/** Returns true if the pixel is foreground, pixels outside of the bitmap are background
+	 */
+	public boolean get(final int x, final int y) {
+		if (x < 0 || y < 0 || x >= width || y >= height) {
+			return false;
+		}
+		return (words[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+	}
+
+	public void set(final int x, final int y, final boolean isForeground) {
+		if (x < 0 || y < 0 || x >= width || y >= height)
+			throw new IndexOutOfBoundsException("pixel " + x + "," + y + " is outside of the bitmap");
+
+		if (isForeground) {
+			words[y * wordsPerRow + (x >>> 6)] |= 1L << x;
+		} else {
+			words[y * wordsPerRow + (x >>> 6)] &= ~(1L << x);
+		}
+	}
+
+	/** Returns the column of the first foreground pixel in row y at or right of startX, or -1 if
+	 * there is none. Background words are skipped as a whole
+	 */
+	public int nextForeground(final int startX, final int y) {
+		if (startX >= width) {
+			return -1;
+		}
+
+		int rowOffset = y * wordsPerRow;
+		int wordIndex = startX >>> 6;
+
+		// ignore the pixels left of the start column in the first word
+		long word = words[rowOffset + wordIndex] & (-1L << startX);
+		while (word == 0) {
+			if (++wordIndex == wordsPerRow) {
+				return -1;
+			}
+			word = words[rowOffset + wordIndex];
+		}
+		return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+	}
+
+	/** Returns the column of the first background pixel in row y at or right of startX, or the width
+	 * of the bitmap if there is none
+	 */
+	public int nextBackground(final int startX, final int y) {
+		if (startX >= width) {
+			return width;
+		}
+
+		int rowOffset = y * wordsPerRow;
+		int wordIndex = startX >>> 6;
+
+		// treat the pixels left of the start column in the first word as foreground
+		long word = ~words[rowOffset + wordIndex] & (-1L << startX);
+		while (word == 0) {
+			if (++wordIndex == wordsPerRow) {
+				return width;
+			}
+			word = ~words[rowOffset + wordIndex];
+		}
+		return java.lang.Math.min(width, (wordIndex << 6) + Long.numberOfTrailingZeros(word));
+	}
+
+	/** Sets the pixels startX to endX - 1 of row y to foreground
+	 */
+	public void setRun(final int y, final int startX, final int endX) {
+		if (y < 0 || y >= height || startX < 0 || endX > width || startX > endX)
+			throw new IndexOutOfBoundsException("run " + startX + "-" + endX + " of row " + y + " is outside of the bitmap");
+
+		int rowOffset = y * wordsPerRow;
+		for (int x = startX; x < endX;) {
+			// fill up to the end of the current word at once
+			int wordEnd = java.lang.Math.min(endX, (x | 63) + 1);
+			long mask = (wordEnd - x == 64 ? -1L : ((1L << (wordEnd - x)) - 1)) << x;
+			words[rowOffset + (x >>> 6)] |= mask;
+			x = wordEnd;
+		}
+	}
+
+	/** Returns the first column at or right of startX in row y whose pixel differs from the pixel left
+	 * of it and whose bit in mask is clear, or -1 if there is none. The mask must have the size of this
+	 * bitmap, an edge behind the last pixel of the row is not found
+	 */
+	public int nextEdge(final int startX, final int y, final Bitmap mask) {
+		int rowOffset = y * wordsPerRow;
+
+		long startMask = -1L << startX;
+		for (int wordIndex = startX >>> 6; wordIndex < wordsPerRow; ++wordIndex) {
+			long pixels = words[rowOffset + wordIndex];
+			long leftPixel = wordIndex > 0 ? words[rowOffset + wordIndex - 1] >>> 63 : 0;
+
+			// bit x is set if pixel x differs from pixel x - 1
+			long edges = (pixels ^ (pixels << 1 | leftPixel)) & ~mask.words[rowOffset + wordIndex] & startMask;
+			if (edges != 0) {
+				return (wordIndex << 6) + Long.numberOfTrailingZeros(edges);
+			}
+			startMask = -1L;
+		}
+		return -1;
+	}
+
+	/** Returns the first column at or right of startX whose pixel in row y differs from the pixel above it in
+	 * row y - 1 and whose bit in row y of mask is clear, or -1 if there is none. Row y must not be the first
+	 * row, the mask must have the size of this bitmap
+	 */
+	public int nextHorizontalEdge(final int startX, final int y, final Bitmap mask) {
+		int rowOffset = y * wordsPerRow;
+
+		long startMask = -1L << startX;
+		for (int wordIndex = startX >>> 6; wordIndex < wordsPerRow; ++wordIndex) {
+			long edges = (words[rowOffset + wordIndex] ^ words[rowOffset - wordsPerRow + wordIndex])
+					& ~mask.words[rowOffset + wordIndex] & startMask;
+			if (edges != 0) {
+				return (wordIndex << 6) + Long.numberOfTrailingZeros(edges);
+			}
+			startMask = -1L;
+		}
+		return -1;
+	}
+
+	/** Returns the pixels around the top left corner of pixel (x, y) as bits, bit 0 is the top left,
+	 * bit 1 the top right, bit 2 the bottom left and bit 3 the bottom right pixel
+	 * There are no bounds checks, the corner must not lie on the border of the bitmap
+	 */
+	public int getNeighbourhood(final int x, final int y) {
+		int upperRow = (y - 1) * wordsPerRow;
+		int lowerRow = y * wordsPerRow;
+		int left = x - 1;
+
+		return (int) (words[upperRow + (left >>> 6)] >>> left) & 1
+				| ((int) (words[upperRow + (x >>> 6)] >>> x) & 1) << 1
+				| ((int) (words[lowerRow + (left >>> 6)] >>> left) & 1) << 2
+				| ((int) (words[lowerRow + (x >>> 6)] >>> x) & 1) << 3;
+	}
+
+	/** Inverts all pixels of a row from the start column up to the right border
+	 */
+	public void invertRow(final int y, final int startX) {
+		if (startX >= width) {
+			return;
+		}
+
+		int rowOffset = y * wordsPerRow;
+		int startWord = startX >>> 6;
+
+		// mask out the pixels left of the start column in the first word
+		words[rowOffset + startWord] ^= -1L << startX;
+		for (int i = startWord + 1; i < wordsPerRow; ++i) {
+			words[rowOffset + i] ^= -1L;
+		}
+		words[rowOffset + wordsPerRow - 1] &= lastWordMask;
+	}
+
+	public Bitmap copy() {
+		Bitmap bitmap = new Bitmap(width, height);
+		System.arraycopy(words, 0, bitmap.words, 0, words.length);
+		return bitmap;
+	}
+
+	/** Returns a copy surrounded by a background border, pixel (x, y) moves to (x + border, y + border)
+	 */
+	public Bitmap copyWithBorder(final int border) {
+		if (border < 0)
+			throw new IllegalArgumentException("invalid border " + border);
+
+		Bitmap bitmap = new Bitmap(width + 2 * border, height + 2 * border);
+		int wordShift = border >>> 6;
+		int bitShift = border & 63;
+
+		for (int y = 0; y < height; ++y) {
+			int sourceOffset = y * wordsPerRow;
+			int targetOffset = (y + border) * bitmap.wordsPerRow + wordShift;
+
+			for (int i = 0; i < wordsPerRow; ++i) {
+				long word = words[sourceOffset + i];
+				bitmap.words[targetOffset + i] |= word << bitShift;
+
+				// pixels shifted out of the word continue in the next one, they always fit into the row
+				long carry = bitShift != 0 ? word >>> (64 - bitShift) : 0;
+				if (carry != 0) {
+					bitmap.words[targetOffset + i + 1] |= carry;
+				}
+			}
+		}
+		return bitmap;
+	}
+}
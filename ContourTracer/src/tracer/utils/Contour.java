@@ -22,67 +22,344 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
 THE SOFTWARE.
 */
 
+
 package tracer.utils;
 
 import java.awt.Point;
-import java.util.Collections;
-import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.NoSuchElementException;
 
+/** Stores the vertices of a set of contours in flat, growable coordinate arrays
+ * The vertices of each contour are kept in one block, a table per contour ID holds the
+ * offset and size of the block. Contours are iterated in the order they were created
+ * The class is not synchronized, each thread has to use its own instance
+ */
 public class Contour {
-	Hashtable<Integer, LinkedList<Point>> contours;
+	private final static int INITIAL_VERTEX_CAPACITY = 64;
+	private final static int INITIAL_CONTOUR_CAPACITY = 8;
+
+	// vertex coordinates of all contours
+	private int xCoordinates[];
+	private int yCoordinates[];
+	private int vertexCount;
+	// vertices left behind by contours that were moved to the end of the arrays
+	private int unusedVertexCount;
+
+	// contour table in creation order
+	private int contourIDs[];
+	private int contourOffsets[];
+	private int contourSizes[];
+	private int contourCount;
+
+	// table index + 1 of every contour ID, 0 if there is no such contour
+	private int contourIndices[];
 
 	public Contour() {
-		contours = new Hashtable<Integer, LinkedList<Point>>();
+		xCoordinates = new int[INITIAL_VERTEX_CAPACITY];
+		yCoordinates = new int[INITIAL_VERTEX_CAPACITY];
+
+		contourIDs = new int[INITIAL_CONTOUR_CAPACITY];
+		contourOffsets = new int[INITIAL_CONTOUR_CAPACITY];
+		contourSizes = new int[INITIAL_CONTOUR_CAPACITY];
+
+		contourIndices = new int[INITIAL_CONTOUR_CAPACITY];
+	}
+
+	/** Creates the contours from packed coordinates without copying them, contour i has the ID ids[i]
+	 * and the points offsets[i] to offsets[i] + sizes[i] - 1 of the coordinate arrays, which hold no
+	 * other points
+	 */
+	public Contour(final int x[], final int y[], final int ids[], final int offsets[], final int sizes[], final int contourCount) {
+		xCoordinates = x;
+		yCoordinates = y;
+		vertexCount = x.length;
+
+		contourIDs = ids;
+		contourOffsets = offsets;
+		contourSizes = sizes;
+		this.contourCount = contourCount;
+
+		int maximumID = -1;
+		for (int i = 0; i < contourCount; ++i) {
+			if (ids[i] < 0)
+				throw new IllegalArgumentException("negative contour ID " + ids[i]);
+			maximumID = java.lang.Math.max(maximumID, ids[i]);
+		}
+		contourIndices = new int[maximumID + 1];
+		for (int i = 0; i < contourCount; ++i) {
+			contourIndices[ids[i]] = i + 1;
+		}
 	}
 
 	public void addPoint(final int contourID, final Point p) {
-		LinkedList<Point> contour;
-		if (contours.containsKey(contourID)) {
-			contour = contours.get(contourID);
-		} else {
-			contour = new LinkedList<Point>();
-			contours.put(contourID, contour);
+		addPoint(contourID, p.x, p.y);
+	}
+
+	public void addPoint(final int contourID, final int x, final int y) {
+		int index = getIndex(contourID);
+		if (index < 0) {
+			index = createContour(contourID);
+		} else if (contourOffsets[index] + contourSizes[index] != vertexCount) {
+			// the block of the contour is not at the end of the arrays anymore, move it there
+			moveToEnd(index);
 		}
-		contour.add(p);
+
+		ensureVertexCapacity(vertexCount + 1);
+		xCoordinates[vertexCount] = x;
+		yCoordinates[vertexCount] = y;
+		++vertexCount;
+		++contourSizes[index];
 	}
 	
 	public void addContour(final int contourID, final LinkedList<Point> contour) {
-		contours.put(contourID, contour);
+		clear(contourID);
+		for (Iterator<Point> pointIt = contour.iterator(); pointIt.hasNext();) {
+			addPoint(contourID, pointIt.next());
+		}
 	}
 
-	public Iterator<Point> getPointIterator(final int contourID) {
-		if (contours.containsKey(contourID)) {
-			return contours.get(contourID).iterator();
-		} else { 
-			return Collections.<Point> emptyList().iterator();
+	/** Replaces the points of a contour with the points of contour sourceID of another set of contours
+	 */
+	public void addContour(final int contourID, final Contour source, final int sourceID) {
+		clear(contourID);
+		for (int i = 0; i < source.getContourSize(sourceID); ++i) {
+			addPoint(contourID, source.getX(sourceID, i), source.getY(sourceID, i));
 		}
 	}
+
+	public Iterator<Point> getPointIterator(final int contourID) {
+		final int index = getIndex(contourID);
+
+		return new Iterator<Point>() {
+			private int pointIndex = 0;
+
+			public boolean hasNext() {
+				return index >= 0 && pointIndex < contourSizes[index];
+			}
+
+			public Point next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+
+				int vertex = contourOffsets[index] + pointIndex++;
+				return new Point(xCoordinates[vertex], yCoordinates[vertex]);
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
 	
 	public Iterator<Integer> getContourIterator() {
-		return contours.keySet().iterator();
+		return new Iterator<Integer>() {
+			private int index = 0;
+
+			public boolean hasNext() {
+				return index < contourCount;
+			}
+
+			public Integer next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+
+				return contourIDs[index++];
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
 	}
 	
 	public int getSize() {
-		return contours.size();
+		return contourCount;
+	}
+
+	/** Returns the ID of the contour at the given position (0 <= index < getSize())
+	 */
+	public int getContourID(final int index) {
+		return contourIDs[index];
 	}
 
 	public int getContourSize(final int contourID) {
-		if (contours.containsKey(contourID)) {
-			return contours.get(contourID).size();
+		int index = getIndex(contourID);
+		if (index >= 0) {
+			return contourSizes[index];
 		} else {
 			return 0;
 		}
 	}
 
+	public int getX(final int contourID, final int pointIndex) {
+		return xCoordinates[getVertex(contourID, pointIndex)];
+	}
+
+	public int getY(final int contourID, final int pointIndex) {
+		return yCoordinates[getVertex(contourID, pointIndex)];
+	}
+
 	public void clear(final int contourID) {
-		if (contours.containsKey(contourID)) {
-			contours.get(contourID).clear();
+		int index = getIndex(contourID);
+		if (index >= 0) {
+			unusedVertexCount += contourSizes[index];
+			contourSizes[index] = 0;
 		}
 	}
 	
+	/** Removes the contour from the table, afterwards the ID can be used for a new contour
+	 * Takes time in the number of contours created after it, see remove(int[]) for many contours
+	 */
+	public void remove(final int contourID) {
+		int index = getIndex(contourID);
+		if (index < 0) {
+			return;
+		}
+
+		if (contourOffsets[index] + contourSizes[index] == vertexCount) {
+			// the block at the end of the arrays is simply cut off
+			vertexCount -= contourSizes[index];
+		} else {
+			unusedVertexCount += contourSizes[index];
+		}
+
+		// close the gap in the table, keeping the creation order of the other contours
+		int count = contourCount - index - 1;
+		System.arraycopy(contourIDs, index + 1, contourIDs, index, count);
+		System.arraycopy(contourOffsets, index + 1, contourOffsets, index, count);
+		System.arraycopy(contourSizes, index + 1, contourSizes, index, count);
+		--contourCount;
+		for (int i = index; i < contourCount; ++i) {
+			contourIndices[contourIDs[i]] = i + 1;
+		}
+		contourIndices[contourID] = 0;
+	}
+
+	/** Removes all given contours like remove(), IDs without a contour are skipped. The gaps in the table are
+	 * closed in one pass, so removing many contours costs no more than removing one
+	 */
+	public void remove(final int ids[]) {
+		int firstIndex = contourCount;
+		for (int i = 0; i < ids.length; ++i) {
+			int index = getIndex(ids[i]);
+			if (index < 0) {
+				continue;
+			}
+
+			if (contourOffsets[index] + contourSizes[index] == vertexCount) {
+				vertexCount -= contourSizes[index];
+			} else {
+				unusedVertexCount += contourSizes[index];
+			}
+
+			// a size of -1 marks the entry for removal
+			contourSizes[index] = -1;
+			contourIndices[ids[i]] = 0;
+			firstIndex = java.lang.Math.min(firstIndex, index);
+		}
+
+		int count = firstIndex;
+		for (int i = firstIndex; i < contourCount; ++i) {
+			if (contourSizes[i] < 0) {
+				continue;
+			}
+			contourIDs[count] = contourIDs[i];
+			contourOffsets[count] = contourOffsets[i];
+			contourSizes[count] = contourSizes[i];
+			contourIndices[contourIDs[count]] = count + 1;
+			++count;
+		}
+		contourCount = count;
+	}
+
 	public boolean hasContour(final int contourID) {
-		return contours.containsKey(contourID);
+		return getIndex(contourID) >= 0;
+	}
+
+	private int getIndex(final int contourID) {
+		if (contourID < 0 || contourID >= contourIndices.length) {
+			return -1;
+		}
+		return contourIndices[contourID] - 1;
+	}
+
+	private int getVertex(final int contourID, final int pointIndex) {
+		int index = getIndex(contourID);
+		if (index < 0 || pointIndex < 0 || pointIndex >= contourSizes[index])
+			throw new IndexOutOfBoundsException("no point " + pointIndex + " in contour " + contourID);
+
+		return contourOffsets[index] + pointIndex;
+	}
+
+	private int createContour(final int contourID) {
+		if (contourID < 0)
+			throw new IllegalArgumentException("negative contour ID " + contourID);
+
+		if (contourCount == contourIDs.length) {
+			int capacity = java.lang.Math.max(INITIAL_CONTOUR_CAPACITY, contourIDs.length * 2);
+			contourIDs = java.util.Arrays.copyOf(contourIDs, capacity);
+			contourOffsets = java.util.Arrays.copyOf(contourOffsets, capacity);
+			contourSizes = java.util.Arrays.copyOf(contourSizes, capacity);
+		}
+		if (contourID >= contourIndices.length) {
+			contourIndices = java.util.Arrays.copyOf(contourIndices, java.lang.Math.max(contourID + 1, contourIndices.length * 2));
+		}
+
+		int index = contourCount++;
+		contourIDs[index] = contourID;
+		contourOffsets[index] = vertexCount;
+		contourSizes[index] = 0;
+		contourIndices[contourID] = index + 1;
+
+		return index;
+	}
+
+	private void moveToEnd(final int index) {
+		// drop the unused vertices first if they make up more than half of the arrays
+		if (unusedVertexCount > vertexCount / 2) {
+			compact();
+			if (contourOffsets[index] + contourSizes[index] == vertexCount) {
+				return;
+			}
+		}
+
+		int size = contourSizes[index];
+		ensureVertexCapacity(vertexCount + size);
+		System.arraycopy(xCoordinates, contourOffsets[index], xCoordinates, vertexCount, size);
+		System.arraycopy(yCoordinates, contourOffsets[index], yCoordinates, vertexCount, size);
+
+		unusedVertexCount += size;
+		contourOffsets[index] = vertexCount;
+		vertexCount += size;
+	}
+
+	private void compact() {
+		// move the blocks together in the order of their offsets
+		long order[] = new long[contourCount];
+		for (int i = 0; i < contourCount; ++i) {
+			order[i] = ((long) contourOffsets[i] << 32) | i;
+		}
+		java.util.Arrays.sort(order);
+
+		int offset = 0;
+		for (int i = 0; i < contourCount; ++i) {
+			int index = (int) order[i];
+			System.arraycopy(xCoordinates, contourOffsets[index], xCoordinates, offset, contourSizes[index]);
+			System.arraycopy(yCoordinates, contourOffsets[index], yCoordinates, offset, contourSizes[index]);
+			contourOffsets[index] = offset;
+			offset += contourSizes[index];
+		}
+
+		vertexCount = offset;
+		unusedVertexCount = 0;
+	}
+
+	private void ensureVertexCapacity(final int capacity) {
+		if (capacity > xCoordinates.length) {
+			int newCapacity = java.lang.Math.max(capacity, xCoordinates.length + (xCoordinates.length >> 1));
+			xCoordinates = java.util.Arrays.copyOf(xCoordinates, newCapacity);
+			yCoordinates = java.util.Arrays.copyOf(yCoordinates, newCapacity);
+		}
 	}
 }
@@ -0,0 +1,246 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2011 Andre Groeschel
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+
+package tracer.utils;
+
+import java.util.Arrays;
+
+/** The ContourTree holds the containment of traced pixel contours, the parent of an outer contour is the
+ * hole it lies in and the parent of a hole is the outer contour around it. Contours without parent are roots
+ * The tree is found from the vertical pixel edges of each row: the edge left of the top left edge of a contour
+ * belongs either to its parent or to a sibling, which is told apart by the kinds of both contours
+ */
+public class ContourTree {
+	private final static int NO_PARENT = -1;
+
+	// indexed by contour ID, NO_PARENT for roots and unused IDs
+	private int parents[];
+	private boolean holes[];
+	private boolean used[];
+
+	// the children of contour ID i are children[childOffsets[i]] to children[childOffsets[i + 1] - 1]
+	private int childOffsets[];
+	private int children[];
+	private int roots[];
+
+	public ContourTree(final Contour outerContour, final Contour innerContour) {
+		int idCount = java.lang.Math.max(getIDCount(outerContour), getIDCount(innerContour));
+		this.parents = new int[idCount];
+		this.holes = new boolean[idCount];
+		this.used = new boolean[idCount];
+		Arrays.fill(parents, NO_PARENT);
+
+		for (int i = 0; i < outerContour.getSize(); ++i) {
+			used[outerContour.getContourID(i)] = true;
+		}
+		for (int i = 0; i < innerContour.getSize(); ++i) {
+			used[innerContour.getContourID(i)] = true;
+			holes[innerContour.getContourID(i)] = true;
+		}
+
+		// bucket the vertical edges by row, each one as (x << 32 | contour ID)
+		int rowCount = java.lang.Math.max(getRowCount(outerContour), getRowCount(innerContour));
+		int rowOffsets[] = new int[rowCount + 1];
+		countEdges(outerContour, rowOffsets);
+		countEdges(innerContour, rowOffsets);
+		for (int y = 0; y < rowCount; ++y) {
+			rowOffsets[y + 1] += rowOffsets[y];
+		}
+
+		long edges[] = new long[rowOffsets[rowCount]];
+		int nextEdge[] = Arrays.copyOf(rowOffsets, rowCount);
+		addEdges(outerContour, edges, nextEdge);
+		addEdges(innerContour, edges, nextEdge);
+		for (int y = 0; y < rowCount; ++y) {
+			Arrays.sort(edges, rowOffsets[y], rowOffsets[y + 1]);
+		}
+
+		int leftIDs[] = new int[idCount];
+		Arrays.fill(leftIDs, NO_PARENT);
+		findLeftContours(outerContour, edges, rowOffsets, leftIDs);
+		findLeftContours(innerContour, edges, rowOffsets, leftIDs);
+		findParents(leftIDs);
+		linkChildren();
+	}
+
+	/** Returns the ID of the parent contour, or -1 if the contour is a root
+	 */
+	public int getParent(final int contourID) {
+		return contourID < parents.length ? parents[contourID] : NO_PARENT;
+	}
+
+	public boolean isHole(final int contourID) {
+		return contourID < holes.length && holes[contourID];
+	}
+
+	/** Returns the number of contours directly inside of the contour, holes of an outer contour or outer contours
+	 * inside of a hole
+	 */
+	public int getChildCount(final int contourID) {
+		if (contourID >= parents.length) {
+			return 0;
+		}
+		return childOffsets[contourID + 1] - childOffsets[contourID];
+	}
+
+	/** Returns the ID of a child, children are ordered by ID
+	 */
+	public int getChild(final int contourID, final int index) {
+		if (index < 0 || index >= getChildCount(contourID))
+			throw new IndexOutOfBoundsException("no child " + index + " in contour " + contourID);
+
+		return children[childOffsets[contourID] + index];
+	}
+
+	public int getRootCount() {
+		return roots.length;
+	}
+
+	/** Returns the ID of a root contour, roots are ordered by ID
+	 */
+	public int getRoot(final int index) {
+		return roots[index];
+	}
+
+	/** Finds the contour of the edge left of the top left edge of each contour
+	 */
+	private static void findLeftContours(final Contour contour, final long edges[], final int rowOffsets[], final int leftIDs[]) {
+		for (int i = 0; i < contour.getSize(); ++i) {
+			int contourID = contour.getContourID(i);
+			if (contour.getContourSize(contourID) == 0) {
+				continue;
+			}
+
+			// contours start at the top of their top left vertical edge
+			int y = contour.getY(contourID, 0);
+			long startEdge = (long) contour.getX(contourID, 0) << 32 | contourID;
+			int index = Arrays.binarySearch(edges, rowOffsets[y], rowOffsets[y + 1], startEdge);
+			if (index > rowOffsets[y]) {
+				leftIDs[contourID] = (int) edges[index - 1];
+			}
+		}
+	}
+
+	/** The pixels between the start edge and the edge left of it have the color left of the start edge. For an
+	 * outer contour it is background, so the left edge belongs to the hole around it or to a sibling. For a
+	 * hole it is foreground, so the left edge belongs to the outer contour around it or to another hole of it
+	 */
+	private void findParents(final int leftIDs[]) {
+		boolean isResolved[] = new boolean[parents.length];
+		int chain[] = new int[parents.length];
+
+		for (int id = 0; id < parents.length; ++id) {
+			// a left contour always starts earlier in scan order, follow them back to a known parent
+			int chainLength = 0;
+			for (int contourID = id; used[contourID] && !isResolved[contourID] && leftIDs[contourID] != NO_PARENT; contourID = leftIDs[contourID]) {
+				chain[chainLength++] = contourID;
+			}
+
+			while (chainLength > 0) {
+				int contourID = chain[--chainLength];
+				int leftID = leftIDs[contourID];
+				parents[contourID] = holes[leftID] != holes[contourID] ? leftID : parents[leftID];
+				isResolved[contourID] = true;
+			}
+			isResolved[id] = true;
+		}
+	}
+
+	private void linkChildren() {
+		this.childOffsets = new int[parents.length + 1];
+		int rootCount = 0;
+		for (int id = 0; id < parents.length; ++id) {
+			if (parents[id] != NO_PARENT) {
+				++childOffsets[parents[id] + 1];
+			} else if (used[id]) {
+				++rootCount;
+			}
+		}
+		for (int id = 0; id < parents.length; ++id) {
+			childOffsets[id + 1] += childOffsets[id];
+		}
+
+		this.children = new int[childOffsets[parents.length]];
+		this.roots = new int[rootCount];
+		int nextChild[] = Arrays.copyOf(childOffsets, parents.length);
+		rootCount = 0;
+		for (int id = 0; id < parents.length; ++id) {
+			if (parents[id] != NO_PARENT) {
+				children[nextChild[parents[id]]++] = id;
+			} else if (used[id]) {
+				roots[rootCount++] = id;
+			}
+		}
+	}
+
+	private static int getIDCount(final Contour contour) {
+		int count = 0;
+		for (int i = 0; i < contour.getSize(); ++i) {
+			count = java.lang.Math.max(count, contour.getContourID(i) + 1);
+		}
+		return count;
+	}
+
+	private static int getRowCount(final Contour contour) {
+		int count = 0;
+		for (int i = 0; i < contour.getSize(); ++i) {
+			int contourID = contour.getContourID(i);
+			for (int j = 0; j < contour.getContourSize(contourID); ++j) {
+				count = java.lang.Math.max(count, contour.getY(contourID, j) + 1);
+			}
+		}
+		return count;
+	}
+
+	/** Counts the vertical edges of each row at rowOffsets[y + 1], vertical runs span more than one row in corner output
+	 */
+	private static void countEdges(final Contour contour, final int rowOffsets[]) {
+		for (int i = 0; i < contour.getSize(); ++i) {
+			int contourID = contour.getContourID(i);
+			for (int j = 1; j < contour.getContourSize(contourID); ++j) {
+				int previousY = contour.getY(contourID, j - 1);
+				int currentY = contour.getY(contourID, j);
+				for (int y = java.lang.Math.min(previousY, currentY); y < java.lang.Math.max(previousY, currentY); ++y) {
+					++rowOffsets[y + 1];
+				}
+			}
+		}
+	}
+
+	private static void addEdges(final Contour contour, final long edges[], final int nextEdge[]) {
+		for (int i = 0; i < contour.getSize(); ++i) {
+			int contourID = contour.getContourID(i);
+			for (int j = 1; j < contour.getContourSize(contourID); ++j) {
+				int previousY = contour.getY(contourID, j - 1);
+				int currentY = contour.getY(contourID, j);
+				long edge = (long) contour.getX(contourID, j) << 32 | contourID;
+				for (int y = java.lang.Math.min(previousY, currentY); y < java.lang.Math.max(previousY, currentY); ++y) {
+					edges[nextEdge[y]++] = edge;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2011 Andre Groeschel
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+
+package tracer.utils;
+
+import java.awt.geom.Point2D;
+
+/** The MomentTable holds prefix sums of x, y, x * x, x * y and y * y over the vertices of a closed contour
+ * The sums of any run of vertices follow from two lookups, so the least squares line of a run and the penalty of
+ * a polygon segment are found in constant time. Coordinates are taken relative to the first vertex to keep the
+ * sums small. A run from vertex i to vertex j includes both ends, j may exceed the last index by wrapping around
+ * once (i <= j < i + vertex count)
+ */
+public class MomentTable {
+	private final static int SUM_COUNT = 5;
+
+	private int xCoordinates[];
+	private int yCoordinates[];
+
+	// sums over the vertices 0 to i - 1 start at index i * SUM_COUNT
+	private long sums[];
+
+	public MomentTable(final int xCoordinates[], final int yCoordinates[]) {
+		this.xCoordinates = xCoordinates;
+		this.yCoordinates = yCoordinates;
+		this.sums = new long[(xCoordinates.length + 1) * SUM_COUNT];
+
+		for (int i = 0; i < xCoordinates.length; ++i) {
+			long x = xCoordinates[i] - xCoordinates[0];
+			long y = yCoordinates[i] - yCoordinates[0];
+			int offset = i * SUM_COUNT;
+			sums[offset + SUM_COUNT] = sums[offset] + x;
+			sums[offset + SUM_COUNT + 1] = sums[offset + 1] + y;
+			sums[offset + SUM_COUNT + 2] = sums[offset + 2] + x * x;
+			sums[offset + SUM_COUNT + 3] = sums[offset + 3] + x * y;
+			sums[offset + SUM_COUNT + 4] = sums[offset + 4] + y * y;
+		}
+	}
+
+	public int getVertexCount() {
+		return xCoordinates.length;
+	}
+
+	/** Returns sum m (0 = x, 1 = y, 2 = x * x, 3 = x * y, 4 = y * y) over the run from vertex i to vertex j
+	 */
+	public double getSum(final int i, final int j, final int m) {
+		int vertexCount = xCoordinates.length;
+		if (j >= vertexCount) {
+			return sums[(j - vertexCount + 1) * SUM_COUNT + m] - sums[i * SUM_COUNT + m] + sums[vertexCount * SUM_COUNT + m];
+		}
+		return sums[(j + 1) * SUM_COUNT + m] - sums[i * SUM_COUNT + m];
+	}
+
+	/** Returns the penalty of the polygon segment from vertex i to vertex j: the root mean square distance of the
+	 * vertices of the run from the segment line, scaled by the segment length (penalty3 of potrace)
+	 */
+	public double getPenalty(final int i, final int j) {
+		int vertexCount = xCoordinates.length;
+		int end = j >= vertexCount ? j - vertexCount : j;
+		double count = j + 1 - i;
+
+		double sumX = getSum(i, j, 0);
+		double sumY = getSum(i, j, 1);
+
+		double centerX = (xCoordinates[i] + xCoordinates[end]) / 2.0 - xCoordinates[0];
+		double centerY = (yCoordinates[i] + yCoordinates[end]) / 2.0 - yCoordinates[0];
+		double normalX = -(yCoordinates[end] - yCoordinates[i]);
+		double normalY = xCoordinates[end] - xCoordinates[i];
+
+		double a = (getSum(i, j, 2) - 2 * sumX * centerX) / count + centerX * centerX;
+		double b = (getSum(i, j, 3) - sumX * centerY - sumY * centerX) / count + centerX * centerY;
+		double c = (getSum(i, j, 4) - 2 * sumY * centerY) / count + centerY * centerY;
+
+		return java.lang.Math.sqrt(normalX * normalX * a + 2 * normalX * normalY * b + normalY * normalY * c);
+	}
+
+	/** Fits a line to the vertices of a run by least squares. The center is set to the mean of the vertices and
+	 * the direction to the unit eigenvector of the largest eigenvalue of their covariance, (0, 0) if the run has
+	 * no direction
+	 */
+	public void fitLine(final int i, final int j, final Point2D.Double center, final Point2D.Double direction) {
+		double count = j + 1 - i;
+		double meanX = getSum(i, j, 0) / count;
+		double meanY = getSum(i, j, 1) / count;
+
+		double a = getSum(i, j, 2) / count - meanX * meanX;
+		double b = getSum(i, j, 3) / count - meanX * meanY;
+		double c = getSum(i, j, 4) / count - meanY * meanY;
+
+		center.x = meanX + xCoordinates[0];
+		center.y = meanY + yCoordinates[0];
+
+		// subtracting the larger eigenvalue leaves a singular matrix, its larger row is normal to the direction
+		double eigenvalue = (a + c + java.lang.Math.sqrt((a - c) * (a - c) + 4 * b * b)) / 2;
+		a -= eigenvalue;
+		c -= eigenvalue;
+
+		double length;
+		if (java.lang.Math.abs(a) >= java.lang.Math.abs(c)) {
+			length = java.lang.Math.sqrt(a * a + b * b);
+			direction.x = -b;
+			direction.y = a;
+		} else {
+			length = java.lang.Math.sqrt(c * c + b * b);
+			direction.x = -c;
+			direction.y = b;
+		}
+
+		if (length != 0) {
+			direction.x /= length;
+			direction.y /= length;
+		} else {
+			direction.x = 0;
+			direction.y = 0;
+		}
+	}
+}
@@ -0,0 +1,274 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2011 Andre Groeschel
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+
+package tracer.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/** The PathDataEncoder builds SVG path data in a reusable buffer
+ * Numbers are written with a fixed number of fraction digits, trailing zeros are dropped. They are formatted
+ * from a rounded long, without Double.toString(), so appending a number allocates nothing once the buffer
+ * has grown. In compact mode separators are only written where a number would run into the one before it,
+ * leading zeros are dropped and moveTo(), lineTo() and curveTo() write relative commands, see setCompact()
+ * The class is not synchronized, each thread has to use its own instance
+ */
+public class PathDataEncoder {
+	public final static int MAX_PRECISION = 9;
+
+	private final static long POWERS_OF_TEN[] = { 1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L,
+			100000000L, 1000000000L };
+
+	private StringBuilder data;
+	private char buffer[];
+
+	private int precision;
+	private boolean isCompact;
+
+	// the last thing written, a command letter or a number with or without a decimal point
+	private char lastCommand;
+	private boolean isNumberLast;
+	private boolean hasDecimalPoint;
+
+	// current point of the relative commands and the line that is not written yet, in rounded units
+	private long currentX;
+	private long currentY;
+	private long pendingLineX;
+	private long pendingLineY;
+
+	public PathDataEncoder(final int precision) {
+		this.data = new StringBuilder(256);
+		this.buffer = new char[256];
+		setPrecision(precision);
+	}
+
+	public int getPrecision() {
+		return precision;
+	}
+
+	/** Sets the number of digits after the decimal point, 0 to MAX_PRECISION
+	 */
+	public void setPrecision(final int precision) {
+		if (precision < 0 || precision > MAX_PRECISION)
+			throw new IllegalArgumentException("invalid precision " + precision);
+
+		this.precision = precision;
+	}
+
+	public boolean isCompact() {
+		return isCompact;
+	}
+
+	/** Selects the compact encoding. Repeated commands are left out, lines in the same direction are joined
+	 * into one and the relative offsets are taken between rounded points, so rounding errors do not add up
+	 */
+	public void setCompact(final boolean isCompact) {
+		this.isCompact = isCompact;
+	}
+
+	/** Empties the buffer for the next path, its capacity is kept
+	 */
+	public void reset() {
+		data.setLength(0);
+		lastCommand = 0;
+		isNumberLast = false;
+		currentX = 0;
+		currentY = 0;
+		pendingLineX = 0;
+		pendingLineY = 0;
+	}
+
+	public int length() {
+		flushLine();
+		return data.length();
+	}
+
+	/** Appends a command letter, separated by a space from what came before unless the encoding is compact
+	 */
+	public void appendCommand(final char command) {
+		if (data.length() > 0 && !isCompact) {
+			data.append(' ');
+		}
+		data.append(command);
+		lastCommand = command;
+		isNumberLast = false;
+	}
+
+	/** Appends a number rounded to the precision, separated by a space from what came before
+	 */
+	public void appendNumber(final double value) {
+		appendRounded(round(value));
+	}
+
+	/** Starts a new subpath at an absolute point
+	 */
+	public void moveTo(final double x, final double y) {
+		flushLine();
+		appendCommand('M');
+		currentX = round(x);
+		currentY = round(y);
+		appendRounded(currentX);
+		appendRounded(currentY);
+	}
+
+	/** Adds a relative line to a point, a line continuing the previous one in the same direction extends it
+	 * and a line of zero length is left out
+	 */
+	public void lineTo(final double x, final double y) {
+		long endX = round(x);
+		long endY = round(y);
+		long lineX = endX - currentX;
+		long lineY = endY - currentY;
+		if (lineX == 0 && lineY == 0) {
+			return;
+		}
+
+		if ((pendingLineX != 0 || pendingLineY != 0) && isSameDirection(pendingLineX, pendingLineY, lineX, lineY)) {
+			pendingLineX += lineX;
+			pendingLineY += lineY;
+		} else {
+			flushLine();
+			pendingLineX = lineX;
+			pendingLineY = lineY;
+		}
+		currentX = endX;
+		currentY = endY;
+	}
+
+	/** Adds a relative cubic Bezier curve with the control points (x1, y1) and (x2, y2)
+	 */
+	public void curveTo(final double x1, final double y1, final double x2, final double y2, final double x,
+			final double y) {
+		flushLine();
+		if (lastCommand != 'c') {
+			appendCommand('c');
+		}
+
+		appendRounded(round(x1) - currentX);
+		appendRounded(round(y1) - currentY);
+		appendRounded(round(x2) - currentX);
+		appendRounded(round(y2) - currentY);
+
+		long endX = round(x);
+		long endY = round(y);
+		appendRounded(endX - currentX);
+		appendRounded(endY - currentY);
+		currentX = endX;
+		currentY = endY;
+	}
+
+	private void flushLine() {
+		if (pendingLineX == 0 && pendingLineY == 0) {
+			return;
+		}
+
+		if (lastCommand != 'l') {
+			appendCommand('l');
+		}
+		appendRounded(pendingLineX);
+		appendRounded(pendingLineY);
+		pendingLineX = 0;
+		pendingLineY = 0;
+	}
+
+	/** Returns true if the vectors point in the same direction, vectors too long for exact products never do
+	 */
+	private static boolean isSameDirection(final long x1, final long y1, final long x2, final long y2) {
+		long limit = 1L << 30;
+		if (java.lang.Math.abs(x1) >= limit || java.lang.Math.abs(y1) >= limit || java.lang.Math.abs(x2) >= limit
+				|| java.lang.Math.abs(y2) >= limit) {
+			return false;
+		}
+		return x1 * y2 == y1 * x2 && x1 * x2 + y1 * y2 > 0;
+	}
+
+	/** Returns the value in units of the last digit, rounded half away from zero
+	 */
+	private long round(final double value) {
+		long rounded = java.lang.Math.round(java.lang.Math.abs(value) * POWERS_OF_TEN[precision]);
+		return value < 0 ? -rounded : rounded;
+	}
+
+	private void appendRounded(final long rounded) {
+		long scale = POWERS_OF_TEN[precision];
+		long integerPart = java.lang.Math.abs(rounded) / scale;
+		long fraction = java.lang.Math.abs(rounded) % scale;
+		boolean isLeadingZeroDropped = isCompact && integerPart == 0 && fraction != 0;
+
+		// a number needs a separator if it would otherwise continue the number before it
+		if (isCompact) {
+			if (isNumberLast && rounded >= 0 && (!isLeadingZeroDropped || !hasDecimalPoint)) {
+				data.append(' ');
+			}
+		} else if (data.length() > 0) {
+			data.append(' ');
+		}
+
+		if (rounded < 0) {
+			data.append('-');
+		}
+		if (!isLeadingZeroDropped) {
+			data.append(integerPart);
+		}
+
+		if (fraction != 0) {
+			// drop the trailing zeros, then pad with leading zeros to the remaining digit count
+			int digits = precision;
+			while (fraction % 10 == 0) {
+				fraction /= 10;
+				--digits;
+			}
+
+			data.append('.');
+			for (long limit = POWERS_OF_TEN[digits - 1]; fraction < limit; limit /= 10) {
+				data.append('0');
+			}
+			data.append(fraction);
+		}
+
+		isNumberLast = true;
+		hasDecimalPoint = fraction != 0;
+	}
+
+	/** Writes the path data without creating a string
+	 */
+	public void writeTo(final Writer out) throws IOException {
+		flushLine();
+
+		int length = data.length();
+		if (buffer.length < length) {
+			buffer = new char[java.lang.Math.max(length, buffer.length * 2)];
+		}
+		data.getChars(0, length, buffer, 0);
+		out.write(buffer, 0, length);
+	}
+
+	@Override
+	public String toString() {
+		flushLine();
+		return data.toString();
+	}
+}